@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "me.ajh123"
@@ -18,7 +19,10 @@ repositories {
     }
 }
 
-java.toolchain.languageVersion = JavaLanguageVersion.of(17)
+// The default build targets 17. Pass -PjavaToolchain=21 (or newer) for a variant on which
+// ExecutionMode.VIRTUAL runs VM loops on virtual threads.
+val javaToolchain = (findProperty("javaToolchain") as String?)?.toInt() ?: 17
+java.toolchain.languageVersion = JavaLanguageVersion.of(javaToolchain)
 
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
@@ -27,8 +31,66 @@ dependencies {
 
     implementation("li.cil.sedna:sedna:2.0.9")
     implementation("li.cil.sedna:sedna-buildroot:0.0.8")
+    implementation("li.cil.ceres:ceres:0.0.4")
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// Benchmarks live in src/jmh/java. `./gradlew jmh` runs them all; -PjmhInclude=<regex> picks some,
+// e.g. -PjmhInclude=TerminalBenchmark. Results are written as JSON so runs can be compared.
+jmh {
+    jmhVersion = "1.37"
+    (findProperty("jmhInclude") as String?)?.let { includes.add(it) }
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+}
+
+// Saved results to compare later runs against: jmh-baselines/<name>.json, named with -PjmhBaseline
+// (default "baseline"). `./gradlew jmh jmhSaveBaseline` records one, `./gradlew jmh jmhCompare` checks
+// a change against it.
+val jmhBaselineFile = layout.projectDirectory.file("jmh-baselines/${findProperty("jmhBaseline") ?: "baseline"}.json")
+val jmhResultsFile = jmh.resultsFile
+
+tasks.register<Copy>("jmhSaveBaseline") {
+    group = "benchmark"
+    description = "Saves the results of the last jmh run as a baseline."
+    mustRunAfter("jmh")
+    from(jmhResultsFile)
+    into(jmhBaselineFile.asFile.parentFile)
+    rename { jmhBaselineFile.asFile.name }
+}
+
+tasks.register("jmhCompare") {
+    group = "benchmark"
+    description = "Compares the results of the last jmh run with a saved baseline."
+    mustRunAfter("jmh")
+    doLast {
+        val baselineFile = jmhBaselineFile.asFile
+        if (!baselineFile.isFile) {
+            throw GradleException("No JMH baseline at $baselineFile: run `./gradlew jmh jmhSaveBaseline` on the " +
+                    "unchanged code first, on this machine and JDK")
+        }
+        val baseline = jmhScores(baselineFile)
+        val current = jmhScores(jmhResultsFile.get().asFile)
+        current.forEach { (name, score) ->
+            val before = baseline[name]
+            val change = if (before == null) "new" else "%+.1f%%".format((score.first - before.first) / before.first * 100)
+            println("%-90s %14.3f %-8s %s".format(name, score.first, score.second, change))
+        }
+        baseline.keys.filterNot(current::containsKey).forEach { println("%-90s %s".format(it, "not run")) }
+    }
+}
+
+// Benchmark name with its parameters -> (score, unit), from a JMH JSON result file
+fun jmhScores(file: File): Map<String, Pair<Double, String>> {
+    if (!file.isFile) throw GradleException("No JMH results at $file")
+    @Suppress("UNCHECKED_CAST")
+    val runs = groovy.json.JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return runs.associate { run ->
+        val params = (run["params"] as Map<*, *>?)?.entries?.joinToString(",", " [", "]") { "${it.key}=${it.value}" } ?: ""
+        val metric = run["primaryMetric"] as Map<*, *>
+        "${run["benchmark"]}$params" to Pair((metric["score"] as Number).toDouble(), metric["scoreUnit"] as String)
+    }
+}
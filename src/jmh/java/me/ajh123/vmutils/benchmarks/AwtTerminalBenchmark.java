@@ -0,0 +1,59 @@
+package me.ajh123.vmutils.benchmarks;
+
+import me.ajh123.vmutils.device.terminal.AWTTerminal;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AWTTerminal#drawAll} painting a 200x50 screen of coloured text into an offscreen image, once with
+ * every cell damaged and once with a single cell damaged. Runs headless; with no target component,
+ * damage only marks cells for the next drawAll.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AwtTerminalBenchmark {
+    private static final int ROWS = 50;
+    private static final int COLS = 200;
+    private static final int CELL_WIDTH = 8;
+    private static final int CELL_HEIGHT = 16;
+
+    private AWTTerminal terminal;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setUp() {
+        terminal = new AWTTerminal(ROWS, COLS, null, CELL_WIDTH, CELL_HEIGHT, Color.WHITE, Color.BLACK);
+        final byte[] text = TerminalBenchmark.ansiText();
+        terminal.write(text, 0, text.length);
+        image = new BufferedImage(COLS * CELL_WIDTH, ROWS * CELL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        terminal.drawAll(graphics); // fills the glyph atlas
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage fullFrame() {
+        terminal.refresh();
+        terminal.drawAll(graphics);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage oneCell() {
+        terminal.refreshCell(ROWS / 2, COLS / 2);
+        terminal.drawAll(graphics);
+        return image;
+    }
+}
@@ -0,0 +1,62 @@
+package me.ajh123.vmutils.benchmarks;
+
+import li.cil.sedna.buildroot.Buildroot;
+import me.ajh123.vmutils.Virtualisation;
+import me.ajh123.vmutils.api.ImageSource;
+import me.ajh123.vmutils.machine.R5VirtualMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Boot to first instruction: an {@link R5VirtualMachine} taking its Buildroot images from the image cache,
+ * wiring its devices and initialising the board, up to where the CPU would execute its first instruction;
+ * and a reset of a started machine. Reading the images is left out, they are cached after the first boot;
+ * copying them into guest RAM is measured on its own by {@link ImageLoadBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BootBenchmark {
+    private ImageSource firmware;
+    private ImageSource kernel;
+    private ImageSource rootfs;
+    private R5VirtualMachine started; // what reset() works on
+
+    @Setup
+    public void setUp() throws IOException {
+        Virtualisation.initialise();
+        firmware = ImageSource.of("buildroot-firmware", Buildroot::getFirmware);
+        kernel = ImageSource.of("buildroot-kernel", Buildroot::getLinuxImage);
+        rootfs = ImageSource.of("buildroot-rootfs", Buildroot::getRootFilesystem);
+        started = newMachine();
+        started.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        started.shutdown();
+    }
+
+    @Benchmark
+    public R5VirtualMachine boot() throws IOException {
+        final R5VirtualMachine vm = newMachine();
+        vm.start(); // initialises, nothing runs until run() or runCycles()
+        vm.shutdown();
+        return vm;
+    }
+
+    @Benchmark
+    public R5VirtualMachine reset() throws IOException {
+        started.reset();
+        return started;
+    }
+
+    private R5VirtualMachine newMachine() {
+        return new R5VirtualMachine(firmware, kernel, rootfs, new NullConsole());
+    }
+}
@@ -0,0 +1,64 @@
+package me.ajh123.vmutils.benchmarks;
+
+import me.ajh123.vmutils.api.Terminal;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one escape sequence of each common kind: through the string-based handling Terminal used
+ * before ({@link LegacyEscapeCodes}) and through the state-machine parser that
+ * {@link Terminal#write} uses, which includes recognising the sequence byte by byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeCodesBenchmark {
+    public enum Sequence {
+        SGR_BASIC("[31m"),
+        SGR_BOLD("[1;33m"),
+        SGR_256("[38;5;196m"),
+        SGR_TRUECOLOR("[38;2;255;128;0m"),
+        SGR_RESET("[0m"),
+        CURSOR_POSITION("[12;40H"),
+        CURSOR_MOVE("[3A"),
+        ERASE_LINE("[K"),
+        ERASE_DISPLAY("[2J");
+
+        final String text; // after ESC
+
+        Sequence(String text) {
+            this.text = text;
+        }
+    }
+
+    @Param
+    public Sequence sequence;
+
+    private TerminalBenchmark.BenchTerminal terminal;
+    private String text;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        terminal = new TerminalBenchmark.BenchTerminal(50, 200);
+        text = sequence.text;
+        bytes = ("\u001B" + sequence.text).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public Terminal legacyString() {
+        LegacyEscapeCodes.handleEscapeSequence(text, terminal.state());
+        return terminal;
+    }
+
+    @Benchmark
+    public Terminal stateMachine() {
+        terminal.write(bytes, 0, bytes.length);
+        return terminal;
+    }
+}
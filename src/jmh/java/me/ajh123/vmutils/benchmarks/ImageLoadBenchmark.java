@@ -0,0 +1,144 @@
+package me.ajh123.vmutils.benchmarks;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.device.memory.Memory;
+import me.ajh123.vmutils.api.ImageSource;
+import me.ajh123.vmutils.api.VirtualMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VirtualMachine#loadProgramBytes} copying an image into guest RAM, from a byte array and from the
+ * shared read-only buffer an {@link ImageSource} hands out, against the one-byte-store-per-byte loop it
+ * replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageLoadBenchmark {
+    private static final int MEMORY_BYTES = 32 * 1024 * 1024;
+    private static final int LOAD_ADDRESS = 0x200000;
+
+    @Param({"65536", "8388608"})
+    public int imageBytes;
+
+    private PhysicalMemory memory;
+    private byte[] image;
+    private ByteBuffer sharedImage;
+    private Loader loader;
+
+    @Setup
+    public void setUp() throws IOException {
+        memory = Memory.create(MEMORY_BYTES);
+        image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        sharedImage = ImageSource.of(image).load();
+        loader = new Loader();
+    }
+
+    @Benchmark
+    public PhysicalMemory fromArray() throws IOException {
+        loader.load(memory, image, LOAD_ADDRESS);
+        return memory;
+    }
+
+    @Benchmark
+    public PhysicalMemory fromSharedBuffer() throws IOException {
+        loader.load(memory, sharedImage, LOAD_ADDRESS);
+        return memory;
+    }
+
+    @Benchmark
+    public PhysicalMemory byteWise() throws MemoryAccessException {
+        // the loader before bulk loading: one 8-bit store per image byte
+        for (int i = 0; i < image.length; i++) {
+            memory.store(LOAD_ADDRESS + i, image[i] & 0xFFL, Sizes.SIZE_8_LOG2);
+        }
+        return memory;
+    }
+
+    // Exposes the protected loaders; nothing else of the machine is used
+    private static final class Loader extends VirtualMachine {
+        Loader() {
+            super(ImageSource.of(new byte[0]), ImageSource.of(new byte[0]), ImageSource.of(new byte[0]));
+        }
+
+        void load(PhysicalMemory memory, byte[] source, int offset) throws IOException {
+            loadProgramBytes(memory, source, offset);
+        }
+
+        void load(PhysicalMemory memory, ByteBuffer source, int offset) throws IOException {
+            loadProgramBytes(memory, source, offset);
+        }
+
+        @Override
+        public void initialize() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void start() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void stop() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reset() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean runCycles(int cycles) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isRunning() {
+            return false;
+        }
+
+        @Override
+        public boolean isIdle() {
+            return true;
+        }
+
+        @Override
+        public int getFrequency() {
+            return 0;
+        }
+
+        @Override
+        public double getEffectiveMHz() {
+            return 0;
+        }
+
+        @Override
+        public void saveSnapshot(Path file) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void restoreSnapshot(Path file) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
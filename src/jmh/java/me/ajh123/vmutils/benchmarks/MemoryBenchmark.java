@@ -0,0 +1,64 @@
+package me.ajh123.vmutils.benchmarks;
+
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.device.memory.Memory;
+import me.ajh123.vmutils.device.memory.DirtyTrackingMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guest RAM access cost: sedna's own memory against {@link DirtyTrackingMemory}, which marks a page dirty
+ * on every store. The access mix is one store to three loads of random sizes, in runs within one page
+ * over a 1 MiB hot set, roughly how a guest touches memory between cache misses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryBenchmark {
+    private static final int SIZE = 32 * 1024 * 1024;
+    private static final int ACCESSES = 4096;
+
+    public enum Kind {
+        SEDNA,
+        DIRTY_TRACKING
+    }
+
+    @Param
+    public Kind kind;
+
+    private PhysicalMemory memory;
+    private final int[] offsets = new int[ACCESSES];
+    private final int[] sizes = new int[ACCESSES];
+
+    @Setup
+    public void setUp() {
+        memory = kind == Kind.SEDNA ? Memory.create(SIZE) : new DirtyTrackingMemory(SIZE);
+        final Random random = new Random(1);
+        int page = 0;
+        for (int i = 0; i < ACCESSES; i++) {
+            if (random.nextInt(16) == 0) page = random.nextInt(256) << 12;
+            offsets[i] = page + (random.nextInt(512) << 3);
+            sizes[i] = random.nextInt(4);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public long mixed() throws MemoryAccessException {
+        long sum = 0;
+        for (int i = 0; i < ACCESSES; i++) {
+            if ((i & 3) == 0) {
+                memory.store(offsets[i], i, sizes[i]);
+            } else {
+                sum += memory.load(offsets[i], sizes[i]);
+            }
+        }
+        return sum;
+    }
+}
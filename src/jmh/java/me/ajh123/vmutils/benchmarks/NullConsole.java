@@ -0,0 +1,24 @@
+package me.ajh123.vmutils.benchmarks;
+
+import me.ajh123.vmutils.api.SerialConsole;
+
+/** A console with no input that discards all output, for machines whose console is not measured. */
+final class NullConsole implements SerialConsole {
+    @Override
+    public boolean hasInput() {
+        return false;
+    }
+
+    @Override
+    public byte dequeueInput() {
+        return 0;
+    }
+
+    @Override
+    public void putChar(char c) {
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+    }
+}
@@ -0,0 +1,46 @@
+package me.ajh123.vmutils.benchmarks;
+
+import li.cil.sedna.buildroot.Buildroot;
+import me.ajh123.vmutils.Virtualisation;
+import me.ajh123.vmutils.machine.R5VirtualMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw {@link R5VirtualMachine} execution speed, booting the bundled Buildroot Linux through
+ * {@link R5VirtualMachine#runCycles}, which runs as fast as it can with no pacing. The score is emulated
+ * cycles per microsecond, i.e. millions of cycles per second. Each fork boots a fresh machine, so the
+ * measurement covers the same stretch of early boot every run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SteppingBenchmark {
+    private static final int SLICE_CYCLES = 1_000_000;
+
+    private R5VirtualMachine vm;
+
+    @Setup
+    public void setUp() throws IOException {
+        Virtualisation.initialise();
+        vm = new R5VirtualMachine(Buildroot.getFirmware(), Buildroot.getLinuxImage(), Buildroot.getRootFilesystem(),
+                new NullConsole());
+        vm.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        vm.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SLICE_CYCLES)
+    public boolean step() throws IOException {
+        return vm.runCycles(SLICE_CYCLES);
+    }
+}
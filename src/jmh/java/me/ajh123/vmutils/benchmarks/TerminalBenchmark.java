@@ -0,0 +1,136 @@
+package me.ajh123.vmutils.benchmarks;
+
+import me.ajh123.vmutils.api.Terminal;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terminal output throughput, in bytes per microsecond, for plain text and for colour-heavy text in the
+ * style of {@code ls --color} and {@code htop}, fed a byte at a time through {@link Terminal#putChar} (as
+ * the VM did before output was batched) and in runs through {@link Terminal#write}. Also the cost of one
+ * {@link Terminal#scrollUp}.
+ * <p>
+ * Rendering hooks do nothing, so this is parsing, cell updates and damage tracking; frames are coalesced
+ * at the default rate as they are in use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerminalBenchmark {
+    private static final int OUTPUT_BYTES = 64 * 1024;
+
+    public enum Text {
+        PLAIN, ANSI
+    }
+
+    @Param
+    public Text text;
+
+    private BenchTerminal terminal;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        terminal = new BenchTerminal(50, 200);
+        output = text == Text.PLAIN ? plainText() : ansiText();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OUTPUT_BYTES)
+    public Terminal putChar() {
+        final byte[] bytes = output;
+        for (byte b : bytes) {
+            terminal.putChar((char) (b & 0xFF));
+        }
+        return terminal;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OUTPUT_BYTES)
+    public Terminal write() {
+        terminal.write(output, 0, output.length);
+        return terminal;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Terminal scrollUp() {
+        terminal.scroll();
+        return terminal;
+    }
+
+    // Lines of prose, wrapped by the terminal
+    static byte[] plainText() {
+        final StringBuilder out = new StringBuilder(OUTPUT_BYTES);
+        final String line = "The quick brown fox jumps over the lazy dog; pack my box with five dozen liquor jugs.\r\n";
+        while (out.length() < OUTPUT_BYTES) {
+            out.append(line);
+        }
+        out.setLength(OUTPUT_BYTES);
+        return out.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Directory listings with colours, status lines with cursor positioning and truecolour bars
+    static byte[] ansiText() {
+        final StringBuilder out = new StringBuilder(OUTPUT_BYTES);
+        final String[] names = {"bin", "boot", "dev", "etc", "home", "lib", "proc", "root", "sbin", "sys", "tmp", "usr", "var"};
+        for (int line = 0; out.length() < OUTPUT_BYTES; line++) {
+            for (int i = 0; i < names.length; i++) {
+                final int colour = 31 + (line + i) % 7;
+                out.append("\u001B[0m\u001B[01;").append(colour).append('m').append(names[i]).append("\u001B[0m  ");
+            }
+            out.append("\r\n");
+            if (line % 4 == 0) {
+                out.append("\u001B[s\u001B[1;1H\u001B[7m CPU \u001B[0m\u001B[38;5;").append(line % 256).append("m");
+                for (int bar = 0; bar < 20; bar++) {
+                    out.append("\u001B[38;2;").append(bar * 12).append(';').append(255 - bar * 12).append(";64m|");
+                }
+                out.append("\u001B[K\u001B[u");
+            }
+        }
+        // cut at the end of a line, so no sequence is left open between invocations
+        out.setLength(out.lastIndexOf("\r\n", OUTPUT_BYTES - 2) + 2);
+        while (out.length() < OUTPUT_BYTES) {
+            out.append(' ');
+        }
+        return out.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static final class BenchTerminal extends Terminal {
+        BenchTerminal(int rows, int cols) {
+            super(rows, cols, Color.WHITE, Color.BLACK);
+        }
+
+        TerminalState state() {
+            return state;
+        }
+
+        void scroll() {
+            state.beginUpdate();
+            try {
+                scrollUp();
+            } finally {
+                state.endUpdate();
+            }
+        }
+
+        @Override
+        public void refresh() {
+        }
+
+        @Override
+        public void refreshCell(int row, int col) {
+        }
+
+        @Override
+        public void refreshRegion(int firstRow, int lastRow, int firstCol, int lastCol) {
+        }
+    }
+}
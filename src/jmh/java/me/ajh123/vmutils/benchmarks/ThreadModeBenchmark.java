@@ -0,0 +1,104 @@
+package me.ajh123.vmutils.benchmarks;
+
+import li.cil.sedna.buildroot.Buildroot;
+import me.ajh123.vmutils.Virtualisation;
+import me.ajh123.vmutils.api.ImageSource;
+import me.ajh123.vmutils.api.PacingMode;
+import me.ajh123.vmutils.machine.ExecutionMode;
+import me.ajh123.vmutils.machine.R5VirtualMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A number of {@link R5VirtualMachine}s booting Buildroot Linux, each launched on its own thread of the
+ * given {@link ExecutionMode}. Every invocation watches them for a short window; the score itself is
+ * meaningless, the secondary results are what to compare:
+ * <ul>
+ *     <li>{@code guestCycles}: emulated cycles per second, summed over all machines. With
+ *     {@link PacingMode#UNTHROTTLED} this is how much work the mode gets done; with
+ *     {@link PacingMode#REAL_TIME} it should match the machines' combined frequency.</li>
+ *     <li>{@code hostCpuNanos}: host CPU time the process used per second, i.e. the cost of running the
+ *     machines; with {@link PacingMode#REAL_TIME} lower is better.</li>
+ * </ul>
+ * {@link ExecutionMode#VIRTUAL} needs Java 21; run with {@code -PjavaToolchain=21}, it fails on older JVMs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModeBenchmark {
+    private static final long WINDOW_MILLIS = 100;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ExecutionMode mode;
+
+    @Param({"REAL_TIME", "UNTHROTTLED"})
+    public PacingMode pacing;
+
+    @Param({"16"})
+    public int machines;
+
+    private final List<R5VirtualMachine> vms = new ArrayList<>();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Progress {
+        public long guestCycles;
+        public long hostCpuNanos;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        if (!mode.isSupported()) {
+            throw new IllegalStateException(mode + " is not supported on Java " + Runtime.version().feature());
+        }
+        Virtualisation.initialise();
+        // read once, shared by every machine
+        final ImageSource firmware = ImageSource.of("buildroot-firmware", Buildroot::getFirmware);
+        final ImageSource kernel = ImageSource.of("buildroot-kernel", Buildroot::getLinuxImage);
+        final ImageSource rootfs = ImageSource.of("buildroot-rootfs", Buildroot::getRootFilesystem);
+        for (int i = 0; i < machines; i++) {
+            final R5VirtualMachine vm = new R5VirtualMachine(firmware, kernel, rootfs, new NullConsole());
+            vm.setPacingMode(pacing);
+            vm.launch(mode);
+            vms.add(vm);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (R5VirtualMachine vm : vms) {
+            vm.shutdown();
+        }
+        vms.clear();
+    }
+
+    @Benchmark
+    public void window(Progress progress) throws InterruptedException {
+        final long cyclesBefore = guestCycles();
+        final long cpuBefore = processCpuNanos();
+        Thread.sleep(WINDOW_MILLIS);
+        progress.guestCycles += guestCycles() - cyclesBefore;
+        progress.hostCpuNanos += processCpuNanos() - cpuBefore;
+    }
+
+    private long guestCycles() {
+        long total = 0;
+        for (R5VirtualMachine vm : vms) {
+            total += vm.getMetrics().getCyclesExecuted();
+        }
+        return total;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
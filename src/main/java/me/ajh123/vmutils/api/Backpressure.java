@@ -0,0 +1,19 @@
+package me.ajh123.vmutils.api;
+
+/**
+ * What a producer does when the buffer between it and a slower consumer is full.
+ */
+public enum Backpressure {
+    /**
+     * Wait for the consumer to make room. Nothing is lost, but a slow consumer slows the producer down.
+     */
+    BLOCK,
+    /**
+     * Discard what does not fit. The producer never waits; a slow consumer misses output.
+     */
+    DROP,
+    /**
+     * Allocate more buffer space, up to a limit, and only wait once that is used up as well.
+     */
+    GROW
+}
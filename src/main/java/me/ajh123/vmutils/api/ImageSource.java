@@ -0,0 +1,81 @@
+package me.ajh123.vmutils.api;
+
+import me.ajh123.vmutils.utils.ImageCache;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Where a VM image (firmware, kernel, root filesystem) comes from. Images are only read when
+ * {@link #load()} is first called and are deduplicated through the process-wide {@link ImageCache},
+ * so any number of machines built from the same image share a single read-only copy.
+ */
+public interface ImageSource {
+    /**
+     * Get the image contents, reading them on first use.
+     *
+     * @return a read-only buffer over the image; callers get their own position and limit
+     * @throws IOException if the image cannot be read
+     */
+    ByteBuffer load() throws IOException;
+
+    /**
+     * A source that reads the stream once, on first use, and closes it. Each such source reads its own
+     * stream; only the resulting contents are shared. To share one read between machines, pass the same
+     * source to all of them, or use {@link #of(String, Opener)}.
+     */
+    static ImageSource of(final InputStream stream) {
+        Objects.requireNonNull(stream, "stream");
+        return new LazyImageSource(() -> {
+            try (BufferedInputStream bis = new BufferedInputStream(stream)) {
+                return ImageCache.intern(bis.readAllBytes());
+            }
+        });
+    }
+
+    /**
+     * A source read from a stream that is only opened when no image of the same name is cached, so any
+     * number of machines built from, e.g., {@code ImageSource.of("buildroot-kernel", Buildroot::getLinuxImage)}
+     * read the image once. The name must always stand for the same contents.
+     */
+    static ImageSource of(final String name, final Opener opener) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(opener, "opener");
+        return new LazyImageSource(() -> ImageCache.intern(name, () -> {
+            try (BufferedInputStream bis = new BufferedInputStream(opener.open())) {
+                return bis.readAllBytes();
+            }
+        }));
+    }
+
+    /**
+     * A source backed by a file. The file is hashed once per size and modification time, so loading the
+     * same unchanged file again does not re-read it when its contents are already cached.
+     */
+    static ImageSource of(final Path path) {
+        Objects.requireNonNull(path, "path");
+        return new LazyImageSource(() -> {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return ImageCache.intern(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                    () -> Files.readAllBytes(path));
+        });
+    }
+
+    /** A source over bytes already in memory. The array must not be modified afterwards. */
+    static ImageSource of(final byte[] bytes) {
+        Objects.requireNonNull(bytes, "bytes");
+        return new LazyImageSource(() -> ImageCache.intern(bytes));
+    }
+
+    /** Opens a fresh stream over an image. */
+    @FunctionalInterface
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+}
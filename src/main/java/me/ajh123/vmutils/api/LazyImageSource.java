@@ -0,0 +1,27 @@
+package me.ajh123.vmutils.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** Memoizes the first successful load so repeated calls hand out views of the same buffer. */
+final class LazyImageSource implements ImageSource {
+    private final Loader loader;
+    private ByteBuffer image;
+
+    LazyImageSource(Loader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public synchronized ByteBuffer load() throws IOException {
+        if (image == null) {
+            image = loader.load();
+        }
+        return image.duplicate();
+    }
+
+    @FunctionalInterface
+    interface Loader {
+        ByteBuffer load() throws IOException;
+    }
+}
@@ -0,0 +1,21 @@
+package me.ajh123.vmutils.api;
+
+/**
+ * How a VM's execution is paced against wall-clock time.
+ */
+public enum PacingMode {
+    /**
+     * Run the CPU at its nominal frequency. Time lost while the host could not keep up (GC pauses, an
+     * overloaded host) is dropped rather than made up.
+     */
+    REAL_TIME,
+    /**
+     * Run the CPU at its nominal frequency, but make up lost time by running without pauses until caught
+     * up, for at most the machine's catch-up budget of lost time.
+     */
+    CATCH_UP,
+    /**
+     * Run the CPU as fast as the host allows, for batch workloads where wall-clock time does not matter.
+     */
+    UNTHROTTLED
+}
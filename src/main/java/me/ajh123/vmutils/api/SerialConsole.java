@@ -1,9 +1,59 @@
 package me.ajh123.vmutils.api;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface SerialConsole {
     boolean hasInput() throws IOException;
     byte dequeueInput() throws IOException;
     void putChar(char c);
+
+    /**
+     * Write a run of guest output. The default feeds each byte to {@link #putChar(char)}; consoles that can
+     * take output in bulk should override this, as it is what the VM uses.
+     */
+    default void write(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            putChar((char) (bytes[i] & 0xFF));
+        }
+    }
+
+    /** Write the remaining bytes of {@code src} as guest output, advancing its position. */
+    default void write(ByteBuffer src) {
+        if (src.hasArray()) {
+            write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        } else {
+            final byte[] chunk = new byte[Math.min(src.remaining(), 4096)];
+            while (src.hasRemaining()) {
+                final int count = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, count);
+                write(chunk, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Move as much pending input as is available, without blocking, into {@code dst}. The default uses
+     * {@link #hasInput()} and {@link #dequeueInput()}; consoles that can hand out input in bulk should
+     * override this, as it is what the VM uses.
+     *
+     * @return the number of bytes read, 0 if no input is pending
+     */
+    default int read(ByteBuffer dst) throws IOException {
+        int count = 0;
+        while (dst.hasRemaining() && hasInput()) {
+            dst.put(dequeueInput());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Register a callback to run whenever new input becomes available, so an idle VM waiting for its next
+     * slice can wake up right away. Passing null removes the callback. Consoles that cannot tell when input
+     * arrives may ignore this; the VM then picks input up on its next poll.
+     */
+    default void setInputListener(Runnable listener) {
+    }
 }
@@ -1,102 +1,363 @@
 package me.ajh123.vmutils.api;
 
+import me.ajh123.vmutils.utils.ByteRingBuffer;
 import me.ajh123.vmutils.utils.ColorUtils;
+import me.ajh123.vmutils.utils.VtParser;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
-import static me.ajh123.vmutils.utils.EscapeCodes.handleEscapeSequence;
+import static me.ajh123.vmutils.utils.EscapeCodes.handleCsi;
 
 public abstract class Terminal implements SerialConsole {
-    protected boolean inEscape = false; // Are we inside an escape sequence?
-    protected StringBuilder escapeBuffer = new StringBuilder(); // Stores the ongoing sequence
+    public static final int DEFAULT_FRAME_RATE = 60;
+    public static final int DEFAULT_SCROLLBACK_LINES = 1000;
+    public static final int INPUT_QUEUE_BYTES = 64 * 1024;
+
+    // one timer thread delivers the coalesced redraws of every terminal in the process
+    private static final ScheduledThreadPoolExecutor FRAMES = new ScheduledThreadPoolExecutor(1, runnable -> {
+        final Thread thread = new Thread(runnable, "Terminal-frames");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int TAB_WIDTH = 8;
+    // write() lets readers in at least this often, so a long run of output cannot starve a snapshot
+    private static final int UPDATE_CHUNK_BYTES = 4096;
+    private static final int SNAPSHOT_SPINS = 64;
+
+    private final VtParser parser = new VtParser(new OutputHandler()); // decodes output into text and sequences
 
     protected final TerminalState state;
+    private volatile Runnable inputListener;
+    private boolean batching = false; // inside putChar()/write(): frames are only scheduled at the end of the run
+
+    // Damage: per row, the range of columns changed since the last frame (from > to when the row is clean).
+    // Written by the thread feeding output, taken by whichever thread delivers the frame.
+    private final ReentrantLock damageLock = new ReentrantLock();
+    private final int[] damageFrom;
+    private final int[] damageTo;
+    private boolean damaged = false;
+    private boolean frameScheduled = false;
+    private long lastFrameNanos = 0;
+    private int drawnCursorRow = 0;
+    private int drawnCursorCol = 0;
+    private volatile long frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / DEFAULT_FRAME_RATE;
 
 
     public Terminal(int rows, int cols, Color foreground, Color background) {
-        this.state = new TerminalState(this, rows, cols, foreground, background);
+        this(rows, cols, foreground, background, DEFAULT_SCROLLBACK_LINES);
+    }
+
+    /**
+     * @param scrollbackLines how many lines that scroll off the top are kept; each costs 8 bytes per column
+     */
+    public Terminal(int rows, int cols, Color foreground, Color background, int scrollbackLines) {
+        this.state = new TerminalState(this, rows, cols, foreground, background, scrollbackLines);
+        this.damageFrom = new int[rows];
+        this.damageTo = new int[rows];
+        Arrays.fill(damageFrom, cols);
+        Arrays.fill(damageTo, -1);
         clear();
     }
 
+    /**
+     * Set how often damaged areas are redrawn. Changes made between two frames are coalesced into one
+     * redraw of just the damaged regions. 0 redraws right after every change (or every run of output).
+     */
+    public void setFrameRate(int framesPerSecond) {
+        if (framesPerSecond < 0) throw new IllegalArgumentException("Frame rate must not be negative: " + framesPerSecond);
+        this.frameIntervalNanos = framesPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+    }
+
     // Clears the terminal buffer
     public void clear() {
-        for (int r = 0; r < this.state.rows; r++) {
-            for (int c = 0; c < this.state.cols; c++) {
-                this.state.buffer[r][c] = ' ';
-                this.state.fg[r][c] = this.state.currentFg;
-                this.state.bg[r][c] = this.state.currentBg;
+        this.state.beginUpdate();
+        try {
+            for (int r = 0; r < this.state.rows; r++) {
+                this.state.fill(r, 0, this.state.cols, ' ', this.state.currentFg, this.state.currentBg);
             }
+            this.state.cursorRow = 0;
+            this.state.cursorCol = 0;
+        } finally {
+            this.state.endUpdate();
         }
-        this.state.cursorRow = 0;
-        this.state.cursorCol = 0;
-        refresh();
+        markAllDamaged();
     }
 
     @Override
     public boolean hasInput() {
-        return !this.state.response.isEmpty();
+        return !this.state.input.isEmpty();
     }
 
     @Override
     public byte dequeueInput() {
-        return (byte) this.state.response.remove(0).charValue();
+        final int value = this.state.input.poll();
+        if (value < 0) throw new IllegalStateException("No input available");
+        return (byte) value;
     }
 
-    // Put a character at the cursor position
+    @Override
+    public int read(ByteBuffer dst) {
+        if (dst.hasArray()) {
+            final int count = this.state.input.poll(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + count);
+            return count;
+        }
+        int count = 0;
+        int value;
+        while (dst.hasRemaining() && (value = this.state.input.poll()) >= 0) {
+            dst.put((byte) value);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Queue input for the guest, such as a key press or pasted text, and wake the VM if it is idle. Input
+     * must come from one thread at a time (typically the UI thread).
+     *
+     * @return the number of bytes queued; less than {@code length} if the input queue is full
+     */
+    public int queueInput(byte[] bytes, int offset, int length) {
+        final int count = this.state.input.offer(bytes, offset, length);
+        if (count > 0) notifyInput();
+        return count;
+    }
+
+    @Override
+    public void setInputListener(Runnable listener) {
+        this.inputListener = listener;
+    }
+
+    // Call after queueing input from outside the VM thread, e.g. a key press
+    protected void notifyInput() {
+        final Runnable listener = this.inputListener;
+        if (listener != null) listener.run();
+    }
+
+    // Feed one byte of output (or, above 255, an already decoded character)
     @Override
     public void putChar(char ch) {
-        if (inEscape) {
-            escapeBuffer.append(ch);
-            // Complete when we encounter a final byte (generally a letter) or '~'
-            if ((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || ch == '~') {
-                handleEscapeSequence(escapeBuffer.toString(), state);
-                escapeBuffer.setLength(0); // reset
-                inEscape = false;
-            }
-            return; // do not put this char in the buffer
+        batching = true; // no frame mid-update: a renderer taking a snapshot would wait on this very thread
+        this.state.beginUpdate();
+        try {
+            parser.advance(ch);
+        } finally {
+            this.state.endUpdate();
+            batching = false;
         }
+        requestRefresh();
+    }
 
-        if (ch == '\u001B') { // Start of an escape sequence
-            inEscape = true;
-            escapeBuffer.setLength(0); // clear
-            return;
+    // Process a run of output, scheduling one frame at the end rather than checking after every character
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        batching = true;
+        try {
+            // sequences are applied whole when their final byte arrives, so any chunk boundary is a safe point
+            for (int end = offset + length; offset < end; offset += UPDATE_CHUNK_BYTES) {
+                this.state.beginUpdate();
+                try {
+                    parser.advance(bytes, offset, Math.min(UPDATE_CHUNK_BYTES, end - offset));
+                } finally {
+                    this.state.endUpdate();
+                }
+            }
+        } finally {
+            batching = false;
+            requestRefresh();
         }
+    }
 
-        if (ch == '\n') {
+    // Put a character at the cursor position
+    protected void print(int codepoint) {
+        // Store character and its current attributes
+        this.state.setCell(this.state.cursorRow, this.state.cursorCol, codepoint, currentAttributes(),
+                effectiveForeground(), effectiveBackground());
+        markDamaged(this.state.cursorRow, this.state.cursorCol, this.state.cursorCol);
+        this.state.cursorCol++;
+        if (this.state.cursorCol >= this.state.cols) {
             this.state.cursorCol = 0;
             this.state.cursorRow++;
             if (this.state.cursorRow >= this.state.rows) scrollUp();
-        } else {
-            // Store character and its current attributes
-            this.state.buffer[this.state.cursorRow][this.state.cursorCol] = ch;
-            this.state.fg[this.state.cursorRow][this.state.cursorCol] = effectiveForeground();
-            this.state.bg[this.state.cursorRow][this.state.cursorCol] = effectiveBackground();
-            this.state.cursorCol++;
-            if (this.state.cursorCol >= this.state.cols) {
+        }
+    }
+
+    // Carry out a C0 control character
+    protected void execute(int control) {
+        switch (control) {
+            case '\n', 0x0B, 0x0C -> { // LF, VT, FF
                 this.state.cursorCol = 0;
                 this.state.cursorRow++;
                 if (this.state.cursorRow >= this.state.rows) scrollUp();
             }
+            case '\r' -> this.state.cursorCol = 0;
+            case '\b' -> this.state.cursorCol = Math.max(0, this.state.cursorCol - 1);
+            case '\t' -> this.state.cursorCol = Math.min(this.state.cols - 1, (this.state.cursorCol / TAB_WIDTH + 1) * TAB_WIDTH);
+            default -> {
+                // BEL and the rest: nothing to show
+            }
         }
-        refresh();
     }
 
-    // Scroll the buffer up by one row
-    protected void scrollUp() {
-        for (int r = 1; r < this.state.rows; r++) {
-            System.arraycopy(this.state.buffer[r], 0, this.state.buffer[r - 1], 0, this.state.cols);
-            System.arraycopy(this.state.fg[r], 0, this.state.fg[r - 1], 0, this.state.cols);
-            System.arraycopy(this.state.bg[r], 0, this.state.bg[r - 1], 0, this.state.cols);
+    // ---------- Damage tracking ----------
+
+    // Record that columns fromCol..toCol (inclusive) of a row changed; they are redrawn with the next frame
+    public void markDamaged(int row, int fromCol, int toCol) {
+        damageLock.lock();
+        try {
+            if (fromCol < damageFrom[row]) damageFrom[row] = fromCol;
+            if (toCol > damageTo[row]) damageTo[row] = toCol;
+            damaged = true;
+        } finally {
+            damageLock.unlock();
+        }
+        if (!batching) requestRefresh();
+    }
+
+    // Record that the whole screen changed
+    public void markAllDamaged() {
+        damageLock.lock();
+        try {
+            Arrays.fill(damageFrom, 0);
+            Arrays.fill(damageTo, this.state.cols - 1);
+            damaged = true;
+        } finally {
+            damageLock.unlock();
         }
-        for (int c = 0; c < this.state.cols; c++) {
-            this.state.buffer[this.state.rows - 1][c] = ' ';
-            this.state.fg[this.state.rows - 1][c] = this.state.currentFg;
-            this.state.bg[this.state.rows - 1][c] = this.state.currentBg;
+        if (!batching) requestRefresh();
+    }
+
+    // Make sure a frame is coming for whatever has been damaged (and for the cursor, if it moved)
+    public void requestRefresh() {
+        if (batching) return; // putChar()/write() request one frame when they are done
+        final long interval = frameIntervalNanos;
+        if (interval == 0) {
+            deliverFrame();
+            return;
         }
+        damageLock.lock();
+        try {
+            if (frameScheduled) return;
+            if (!damaged && this.state.cursorRow == drawnCursorRow && this.state.cursorCol == drawnCursorCol) return;
+            frameScheduled = true;
+            final long delay = Math.max(0, lastFrameNanos + interval - System.nanoTime());
+            FRAMES.schedule(this::deliverFrame, delay, TimeUnit.NANOSECONDS);
+        } finally {
+            damageLock.unlock();
+        }
+    }
+
+    /**
+     * Redraw a damaged region, rows and columns inclusive. Called once per run of adjacent damaged rows in
+     * a frame; the default redraws cell by cell, renderers that can repaint an area at once should override it.
+     */
+    public void refreshRegion(int firstRow, int lastRow, int firstCol, int lastCol) {
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                refreshCell(r, c);
+            }
+        }
+    }
+
+    private void deliverFrame() {
+        final int rows = this.state.rows;
+        final int cols = this.state.cols;
+        final int[] regions = new int[rows * 4]; // firstRow, lastRow, firstCol, lastCol per region
+        int regionCount = 0;
+        boolean whole = true;
+
+        damageLock.lock();
+        try {
+            frameScheduled = false;
+            lastFrameNanos = System.nanoTime();
+            // the cell the cursor left and the one it is on now
+            final int cursorRow = Math.min(this.state.cursorRow, rows - 1);
+            final int cursorCol = Math.min(this.state.cursorCol, cols - 1);
+            if (cursorRow != drawnCursorRow || cursorCol != drawnCursorCol) {
+                damageFrom[drawnCursorRow] = Math.min(damageFrom[drawnCursorRow], drawnCursorCol);
+                damageTo[drawnCursorRow] = Math.max(damageTo[drawnCursorRow], drawnCursorCol);
+                damageFrom[cursorRow] = Math.min(damageFrom[cursorRow], cursorCol);
+                damageTo[cursorRow] = Math.max(damageTo[cursorRow], cursorCol);
+                drawnCursorRow = cursorRow;
+                drawnCursorCol = cursorCol;
+            }
+
+            int r = 0;
+            while (r < rows) {
+                if (damageFrom[r] > damageTo[r]) {
+                    whole = false;
+                    r++;
+                    continue;
+                }
+                // merge adjacent damaged rows into one region spanning their columns
+                final int first = r;
+                int from = cols;
+                int to = -1;
+                while (r < rows && damageFrom[r] <= damageTo[r]) {
+                    from = Math.min(from, damageFrom[r]);
+                    to = Math.max(to, damageTo[r]);
+                    if (damageFrom[r] != 0 || damageTo[r] != cols - 1) whole = false;
+                    r++;
+                }
+                regions[regionCount * 4] = first;
+                regions[regionCount * 4 + 1] = r - 1;
+                regions[regionCount * 4 + 2] = from;
+                regions[regionCount * 4 + 3] = to;
+                regionCount++;
+            }
+            Arrays.fill(damageFrom, cols);
+            Arrays.fill(damageTo, -1);
+            damaged = false;
+        } finally {
+            damageLock.unlock();
+        }
+
+        if (regionCount == 0) return;
+        if (whole) {
+            refresh();
+            return;
+        }
+        for (int i = 0; i < regionCount; i++) {
+            refreshRegion(regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3]);
+        }
+    }
+
+    /**
+     * Copy what a renderer needs into {@code frame}: the screen, or with {@code viewOffset} lines of
+     * scrollback above it, plus the cursor. The copy is consistent: it never holds part of an escape
+     * sequence's effect or of a scroll. The thread writing output is never made to wait; if it changes the
+     * screen during the copy, the copy is simply taken again. Must not be called by the output thread in
+     * the middle of an update.
+     */
+    public void snapshot(Frame frame, int viewOffset) {
+        if (frame.state != this.state) throw new IllegalArgumentException("Frame belongs to another terminal");
+        for (int attempt = 0; !this.state.tryCopy(frame, viewOffset); attempt++) {
+            if (attempt < SNAPSHOT_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield(); // a long update (or a descheduled writer) is in progress
+            }
+        }
+    }
+
+    /** A frame to take {@link #snapshot snapshots} into; reuse it, each holds a copy of the whole view. */
+    public Frame newFrame() {
+        return new Frame(this.state);
+    }
+
+    // Scroll the buffer up by one row
+    protected void scrollUp() {
+        this.state.scrollUp(this.state.currentFg, this.state.currentBg);
         this.state.cursorRow = this.state.rows - 1;
-        refresh();
+        markAllDamaged();
     }
 
     public Color getCurrentBg() {
@@ -123,7 +384,7 @@ public abstract class Terminal implements SerialConsole {
         return this.state.defaultBg;
     }
 
-    // Abstract rendering hooks
+    // Abstract rendering hooks; called from the frame timer (or the output thread at frame rate 0)
     public abstract void refresh();           // redraw the entire terminal
     public abstract void refreshCell(int row, int col); // redraw one cell
 
@@ -142,6 +403,14 @@ public abstract class Terminal implements SerialConsole {
         return fgc;
     }
 
+    protected int currentAttributes() {
+        int attrs = 0;
+        if (this.state.attrBold) attrs |= TerminalState.ATTR_BOLD;
+        if (this.state.attrUnderline) attrs |= TerminalState.ATTR_UNDERLINE;
+        if (this.state.attrInverse) attrs |= TerminalState.ATTR_INVERSE;
+        return attrs;
+    }
+
     // Compute effective background taking attributes into account (inverse)
     protected Color effectiveBackground() {
         Color bgc = this.state.currentBg;
@@ -152,14 +421,86 @@ public abstract class Terminal implements SerialConsole {
         return bgc;
     }
 
+    private final class OutputHandler implements VtParser.Handler {
+        @Override
+        public void print(int codepoint) {
+            Terminal.this.print(codepoint);
+        }
+
+        @Override
+        public void execute(int control) {
+            Terminal.this.execute(control);
+        }
+
+        @Override
+        public void csiDispatch(int finalByte, int[] params, int paramCount, int subParams, int marker, int intermediate) {
+            if (intermediate == 0) {
+                handleCsi(state, finalByte, params, paramCount, subParams, marker);
+            }
+        }
+
+        @Override
+        public void escDispatch(int finalByte, int intermediate) {
+            // ESC sequences other than CSI are not supported yet
+        }
+    }
+
+    /**
+     * Screen contents and cursor/attribute state.
+     * <p>
+     * The screen is two parallel arrays with one entry per cell, row after row, instead of a char and two
+     * {@link Color} references per cell: an {@code int} glyph with the code point in bits 0-20 and the
+     * attribute bits in 21-23, and a {@code long} with the foreground colour code in its upper and the
+     * background in its lower half. A colour code is either a 24-bit RGB value with {@code RGB_FLAG} set,
+     * used for truecolour, or the index of a default or fixed palette colour, so storing a colour never
+     * allocates and nothing has to be reclaimed. Colours stored are the effective ones (bold and inverse
+     * already applied), so renderers can draw them as they are.
+     * <p>
+     * Screen and scrollback share one circular buffer of rows. Scrolling moves the index of the top row
+     * and blanks the row that comes in at the bottom, which is the oldest line of history once the
+     * scrollback is full. Cell accessors take screen rows 0 to rows - 1, and history rows -1 (the most
+     * recent line that scrolled off) down to -{@link #getScrollbackSize()}.
+     * <p>
+     * The output thread changes cells and cursor between {@link #beginUpdate()} and {@link #endUpdate()},
+     * which bump a sequence number (a seqlock). Other threads must not read cells directly while output is
+     * running; they take a {@link Frame} with {@link Terminal#snapshot}, which copies optimistically and
+     * retries if an update overlapped the copy.
+     */
     public static class TerminalState {
+        public static final int ATTR_BOLD = 1;
+        public static final int ATTR_UNDERLINE = 2;
+        public static final int ATTR_INVERSE = 4;
+
+        private static final int CODEPOINT_MASK = (1 << 21) - 1;
+        private static final int ATTR_SHIFT = 21;
+        private static final int RGB_FLAG = 1 << 24;
+        private static final int DEFAULT_FG_CODE = 0;
+        private static final int DEFAULT_BG_CODE = 1;
+        private static final int PALETTE_CODE = 2; // code of 256-colour palette entry 0
+        private static final VarHandle SEQUENCE;
+
+        static {
+            try {
+                SEQUENCE = MethodHandles.lookup().findVarHandle(TerminalState.class, "sequence", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
         public final Terminal parent;
         public final int rows;
         public final int cols;
-        public final List<Character> response = new ArrayList<>();
-        public final char[][] buffer;
-        public final Color[][] fg;
-        public final Color[][] bg;
+        public final int scrollbackLines;
+        // keyboard input on its way to the guest: written by the UI thread, read by the VM thread
+        public final ByteRingBuffer input = new ByteRingBuffer(INPUT_QUEUE_BYTES);
+        // (rows + scrollbackLines) rows of cols cells, used as a ring
+        private final int[] glyphs;
+        private final long[] colors;
+        private final int capacityRows;
+        private int topRow = 0; // ring row holding screen row 0
+        private int historySize = 0; // lines of scrollback currently held
+        private long sequence = 0; // odd while an update is in progress; accessed through SEQUENCE
+        private int updateDepth = 0; // output thread only
         public Color currentBg;
         public Color currentFg;
         public final Color defaultFg;
@@ -184,6 +525,11 @@ public abstract class Terminal implements SerialConsole {
         public boolean savedInverse = false;
 
         public TerminalState(Terminal parent, int rows, int cols, Color defaultFg, Color defaultBg) {
+            this(parent, rows, cols, defaultFg, defaultBg, 0);
+        }
+
+        public TerminalState(Terminal parent, int rows, int cols, Color defaultFg, Color defaultBg, int scrollbackLines) {
+            if (scrollbackLines < 0) throw new IllegalArgumentException("Scrollback must not be negative: " + scrollbackLines);
             this.parent = parent;
             this.rows = rows;
             this.cols = cols;
@@ -191,9 +537,241 @@ public abstract class Terminal implements SerialConsole {
             this.defaultBg = defaultBg;
             this.currentFg = defaultFg;
             this.currentBg = defaultBg;
-            this.buffer = new char[rows][cols];
-            this.fg = new Color[rows][cols];
-            this.bg = new Color[rows][cols];
+            this.scrollbackLines = scrollbackLines;
+            this.capacityRows = rows + scrollbackLines;
+            this.glyphs = new int[capacityRows * cols];
+            this.colors = new long[capacityRows * cols];
+        }
+
+        // ---------- Cells ----------
+
+        public char getChar(int row, int col) {
+            return (char) getCodepoint(row, col);
+        }
+
+        public int getCodepoint(int row, int col) {
+            return glyphs[index(row, col)] & CODEPOINT_MASK;
+        }
+
+        /** @return the ATTR_* bits the cell was written with */
+        public int getAttributes(int row, int col) {
+            return glyphs[index(row, col)] >>> ATTR_SHIFT;
+        }
+
+        public Color getForeground(int row, int col) {
+            return color(foregroundCode(colors[index(row, col)]));
+        }
+
+        public Color getBackground(int row, int col) {
+            return color(backgroundCode(colors[index(row, col)]));
+        }
+
+        public void setCell(int row, int col, int codepoint, int attributes, Color fg, Color bg) {
+            final int index = index(row, col);
+            glyphs[index] = glyph(codepoint, attributes);
+            colors[index] = colorPair(fg, bg);
+        }
+
+        /** Set columns fromCol (inclusive) to toCol (exclusive) of a row to the same character and colours. */
+        public void fill(int row, int fromCol, int toCol, int codepoint, Color fg, Color bg) {
+            final int base = index(row, 0);
+            Arrays.fill(glyphs, base + fromCol, base + toCol, glyph(codepoint, 0));
+            Arrays.fill(colors, base + fromCol, base + toCol, colorPair(fg, bg));
+        }
+
+        /** Scroll the screen up one line; the top line moves into the scrollback, the new bottom line is blank. */
+        public void scrollUp(Color fg, Color bg) {
+            topRow = topRow + 1 == capacityRows ? 0 : topRow + 1;
+            if (historySize < scrollbackLines) historySize++;
+            fill(rows - 1, 0, cols, ' ', fg, bg);
+        }
+
+        /** @return the number of lines currently held in the scrollback, at most scrollbackLines */
+        public int getScrollbackSize() {
+            return historySize;
+        }
+
+        private int index(int row, int col) {
+            if (row < -historySize || row >= rows) {
+                throw new IndexOutOfBoundsException("Row " + row + " outside -" + historySize + ".." + (rows - 1));
+            }
+            int physical = topRow + row;
+            if (physical < 0) {
+                physical += capacityRows;
+            } else if (physical >= capacityRows) {
+                physical -= capacityRows;
+            }
+            return physical * cols + col;
+        }
+
+        private static int glyph(int codepoint, int attributes) {
+            return codepoint & CODEPOINT_MASK | (attributes & 7) << ATTR_SHIFT;
+        }
+
+        private long colorPair(Color fg, Color bg) {
+            return (long) colorCode(fg, DEFAULT_FG_CODE) << 32 | colorCode(bg, DEFAULT_BG_CODE) & 0xFFFFFFFFL;
+        }
+
+        private static int foregroundCode(long colorPair) {
+            return (int) (colorPair >>> 32);
+        }
+
+        private static int backgroundCode(long colorPair) {
+            return (int) colorPair;
+        }
+
+        // ---------- Publication ----------
+
+        /** Start changing the screen or cursor; updates nest, and only the outermost one is seen by readers. */
+        public void beginUpdate() {
+            if (updateDepth++ == 0) {
+                SEQUENCE.setOpaque(this, sequence + 1);
+                VarHandle.storeStoreFence(); // the odd sequence is visible before any cell changes
+            }
+        }
+
+        /** Finish an update; a snapshot taken from now on sees all of it. */
+        public void endUpdate() {
+            if (--updateDepth == 0) {
+                SEQUENCE.setRelease(this, sequence + 1);
+            }
+        }
+
+        // Copy the view into the frame; false if an update was in progress or overlapped the copy
+        boolean tryCopy(Frame frame, int viewOffset) {
+            final long before = (long) SEQUENCE.getAcquire(this);
+            if ((before & 1) != 0) return false;
+
+            // plain reads from here on may race with the writer, so nothing read can be allowed to throw
+            final int offset = Math.max(0, Math.min(viewOffset, Math.min(historySize, scrollbackLines)));
+            final int top = topRow;
+            for (int r = 0; r < rows; r++) {
+                int physical = top - offset + r;
+                if (physical < 0) {
+                    physical += capacityRows;
+                } else if (physical >= capacityRows) {
+                    physical -= capacityRows;
+                }
+                System.arraycopy(glyphs, physical * cols, frame.glyphs, r * cols, cols);
+                System.arraycopy(colors, physical * cols, frame.colors, r * cols, cols);
+            }
+            frame.viewOffset = offset;
+            frame.cursorRow = Math.max(0, Math.min(rows - 1, cursorRow));
+            frame.cursorCol = Math.max(0, Math.min(cols - 1, cursorCol));
+            frame.cursorVisible = cursorVisible;
+
+            VarHandle.loadLoadFence(); // the copy is complete before the sequence is checked again
+            return (long) SEQUENCE.getOpaque(this) == before;
+        }
+
+        // ---------- Colour codes ----------
+
+        // the output path asks for the same one or two colours over and over; skip the lookup for them
+        private Color lastColorA, lastColorB;
+        private int lastCodeA, lastCodeB;
+
+        private int colorCode(Color color, int fallback) {
+            if (color == null) return fallback;
+            if (color == lastColorA) return lastCodeA;
+            if (color == lastColorB) return lastCodeB;
+
+            final int code;
+            if (color == defaultFg) {
+                code = DEFAULT_FG_CODE;
+            } else if (color == defaultBg) {
+                code = DEFAULT_BG_CODE;
+            } else {
+                final int index = ColorUtils.paletteIndex(color);
+                code = index >= 0 ? PALETTE_CODE + index : RGB_FLAG | color.getRGB() & 0xFFFFFF;
+            }
+            lastColorB = lastColorA;
+            lastCodeB = lastCodeA;
+            lastColorA = color;
+            lastCodeA = code;
+            return code;
+        }
+
+        private Color color(int code) {
+            if ((code & RGB_FLAG) != 0) return ColorUtils.rgb(code >>> 16 & 0xFF, code >>> 8 & 0xFF, code & 0xFF);
+            if (code == DEFAULT_FG_CODE) return defaultFg;
+            if (code == DEFAULT_BG_CODE) return defaultBg;
+            return ColorUtils.colorFrom256(this, code - PALETTE_CODE);
+        }
+
+        // 0xRRGGBB of a colour code, without looking up a Color for truecolour
+        private int rgb(int code) {
+            if ((code & RGB_FLAG) != 0) return code & 0xFFFFFF;
+            return color(code).getRGB() & 0xFFFFFF;
+        }
+    }
+
+    /**
+     * A consistent copy of a terminal's view, filled by {@link Terminal#snapshot}. Rows are view rows,
+     * 0 at the top; with a view offset they start that many lines back in the scrollback. Only the thread
+     * that took the snapshot should read it.
+     */
+    public static final class Frame {
+        public final int rows;
+        public final int cols;
+        private final TerminalState state; // for the default colours
+        private final int[] glyphs;
+        private final long[] colors;
+        private int viewOffset;
+        private int cursorRow;
+        private int cursorCol;
+        private boolean cursorVisible;
+
+        private Frame(TerminalState state) {
+            this.state = state;
+            this.rows = state.rows;
+            this.cols = state.cols;
+            this.glyphs = new int[rows * cols];
+            this.colors = new long[rows * cols];
+        }
+
+        public int getCodepoint(int row, int col) {
+            return glyphs[row * cols + col] & TerminalState.CODEPOINT_MASK;
+        }
+
+        /** @return the ATTR_* bits the cell was written with */
+        public int getAttributes(int row, int col) {
+            return glyphs[row * cols + col] >>> TerminalState.ATTR_SHIFT;
+        }
+
+        public Color getForeground(int row, int col) {
+            return state.color(TerminalState.foregroundCode(colors[row * cols + col]));
+        }
+
+        public Color getBackground(int row, int col) {
+            return state.color(TerminalState.backgroundCode(colors[row * cols + col]));
+        }
+
+        /** @return the foreground as 0xRRGGBB; unlike {@link #getForeground} never looks up a Color for truecolour */
+        public int getForegroundRgb(int row, int col) {
+            return state.rgb(TerminalState.foregroundCode(colors[row * cols + col]));
+        }
+
+        /** @return the background as 0xRRGGBB; unlike {@link #getBackground} never looks up a Color for truecolour */
+        public int getBackgroundRgb(int row, int col) {
+            return state.rgb(TerminalState.backgroundCode(colors[row * cols + col]));
+        }
+
+        /** @return how many lines back into the scrollback the copied view starts */
+        public int getViewOffset() {
+            return viewOffset;
+        }
+
+        /** @return the cursor's screen row; with a view offset it is drawn that many rows lower */
+        public int getCursorRow() {
+            return cursorRow;
+        }
+
+        public int getCursorCol() {
+            return cursorCol;
+        }
+
+        public boolean isCursorVisible() {
+            return cursorVisible;
         }
     }
 }
@@ -1,35 +1,55 @@
 package me.ajh123.vmutils.api;
 
-import li.cil.sedna.api.Sizes;
 import li.cil.sedna.api.device.PhysicalMemory;
 import li.cil.sedna.api.memory.MemoryAccessException;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Objects;
 
 public abstract class VirtualMachine {
-    // cached images (immutable after construction)
-    protected final byte[] firmwareBytes;
-    protected final byte[] kernelBytes;
-    protected final byte[] rootfsBytes;
+    protected static final long DEFAULT_CATCH_UP_BUDGET_NANOS = 100_000_000L;
 
+    // image sources; contents are read lazily and shared between machines through the image cache
+    protected final ImageSource firmware;
+    protected final ImageSource kernel;
+    protected final ImageSource rootfs;
+
+    // pacing; may be changed at any time, the run loop picks changes up on its next slice
+    private volatile PacingMode pacingMode = PacingMode.REAL_TIME;
+    private volatile long catchUpBudgetNanos = DEFAULT_CATCH_UP_BUDGET_NANOS;
+
+    // runtime counters; recorded by subclasses and schedulers, published over JMX on request
+    protected final VmMetrics metrics = new VmMetrics(this);
+    private ObjectName metricsName;
+
+    /**
+     * Build a machine from image streams, which are read on first use. Each machine reads its own streams;
+     * to read an image once for many machines, use the {@link ImageSource} constructor.
+     */
     public VirtualMachine(final InputStream firmware,
                             final InputStream kernel,
                             final InputStream rootfs
     ) {
-        Objects.requireNonNull(firmware, "firmware");
-        Objects.requireNonNull(kernel, "kernel");
-        Objects.requireNonNull(rootfs, "rootfs");
+        this(ImageSource.of(Objects.requireNonNull(firmware, "firmware")),
+                ImageSource.of(Objects.requireNonNull(kernel, "kernel")),
+                ImageSource.of(Objects.requireNonNull(rootfs, "rootfs")));
+    }
 
-        try {
-            this.firmwareBytes = readAllAndClose(firmware);
-            this.kernelBytes = readAllAndClose(kernel);
-            this.rootfsBytes = readAllAndClose(rootfs);
-        } catch (IOException e) {
-            throw new IllegalStateException("Failed to read VM images", e);
-        }
+    public VirtualMachine(final ImageSource firmware,
+                            final ImageSource kernel,
+                            final ImageSource rootfs
+    ) {
+        this.firmware = Objects.requireNonNull(firmware, "firmware");
+        this.kernel = Objects.requireNonNull(kernel, "kernel");
+        this.rootfs = Objects.requireNonNull(rootfs, "rootfs");
     }
 
 
@@ -60,8 +80,113 @@ public abstract class VirtualMachine {
      */
     public abstract void shutdown();
 
+    /**
+     * Run up to the given number of CPU cycles and return, without any pacing. This is the building block
+     * for schedulers that multiplex many machines onto a few threads; it must not be called concurrently.
+     *
+     * @return whether the VM is still running afterwards
+     */
+    public abstract boolean runCycles(int cycles) throws IOException;
+
+    /**
+     * @return whether the VM has been started and has not stopped since
+     */
+    public abstract boolean isRunning();
+
+    /**
+     * @return whether the guest was idle (waiting for an interrupt, no console traffic) during the most
+     * recent run of cycles; schedulers may then run it less often, in correspondingly larger batches
+     */
+    public abstract boolean isIdle();
+
+    /**
+     * @return the emulated CPU frequency in cycles per second
+     */
+    public abstract int getFrequency();
+
+    /**
+     * @return the CPU frequency actually achieved recently, in MHz, as opposed to {@link #getFrequency()}
+     */
+    public abstract double getEffectiveMHz();
+
+    public PacingMode getPacingMode() {
+        return pacingMode;
+    }
+
+    public void setPacingMode(final PacingMode pacingMode) {
+        this.pacingMode = Objects.requireNonNull(pacingMode, "pacingMode");
+    }
+
+    /**
+     * @return how much lost time, in nanoseconds, {@link PacingMode#CATCH_UP} makes up at most
+     */
+    public long getCatchUpBudgetNanos() {
+        return catchUpBudgetNanos;
+    }
+
+    public void setCatchUpBudgetNanos(final long catchUpBudgetNanos) {
+        if (catchUpBudgetNanos < 0) {
+            throw new IllegalArgumentException("Catch-up budget must not be negative: " + catchUpBudgetNanos);
+        }
+        this.catchUpBudgetNanos = catchUpBudgetNanos;
+    }
+
+    public VmMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Publish this machine's {@link VmMetrics} on the platform MBean server, as
+     * {@code me.ajh123.vmutils:type=VirtualMachine,name=<name>}, replacing an earlier registration.
+     *
+     * @return the name the metrics were registered under
+     * @throws IllegalStateException if another machine is already registered under that name
+     */
+    public synchronized ObjectName registerMetrics(final String name) {
+        Objects.requireNonNull(name, "name");
+        unregisterMetrics();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName("me.ajh123.vmutils:type=VirtualMachine,name=" + ObjectName.quote(name));
+            server.registerMBean(metrics, objectName);
+            metricsName = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics as " + name, e);
+        }
+    }
+
+    /** Withdraw the metrics published by {@link #registerMetrics(String)}, if any. */
+    public synchronized void unregisterMetrics() {
+        if (metricsName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            // already gone
+        } finally {
+            metricsName = null;
+        }
+    }
+
+    /**
+     * Write the complete machine state (CPU, devices, RAM and disk changes) to a file. May be called
+     * while the VM is running; the snapshot is taken between two steps of the run loop.
+     */
+    public abstract void saveSnapshot(Path file) throws IOException;
+
+    /**
+     * Replace the machine state with a snapshot written by {@link #saveSnapshot(Path)} on a machine built
+     * from the same images. Stops execution; a following start() resumes from the snapshot instead of booting.
+     */
+    public abstract void restoreSnapshot(Path file) throws IOException;
+
     // ---------- Helpers ----------
 
+    /**
+     * @deprecated images are read through {@link ImageSource}, which shares them between machines; use
+     * {@link ImageSource#of(InputStream)} and {@link ImageSource#load()} instead
+     */
+    @Deprecated
     protected static byte[] readAllAndClose(final InputStream stream) throws IOException {
         try (BufferedInputStream bis = new BufferedInputStream(stream)) {
             return bis.readAllBytes();
@@ -70,7 +195,7 @@ public abstract class VirtualMachine {
 
     /**
      * Load a byte array into the provided PhysicalMemory at the given device-local offset.
-     * Performs bounds checks and converts bytes to unsigned longs before calling memory.store.
+     * Performs bounds checks and hands the whole image to the memory in a single bulk store.
      *
      * @param memory the PhysicalMemory device
      * @param source the bytes to load
@@ -80,20 +205,34 @@ public abstract class VirtualMachine {
     protected void loadProgramBytes(final PhysicalMemory memory,
                                          final byte[] source,
                                          final int offset) throws IOException {
+        loadProgramBytes(memory, ByteBuffer.wrap(source), offset);
+    }
+
+    /**
+     * Load the remaining bytes of a buffer into the provided PhysicalMemory at the given device-local offset.
+     * The buffer's position is left untouched so the same (possibly shared) buffer can be loaded again on reset.
+     *
+     * @param memory the PhysicalMemory device
+     * @param source the bytes to load, from position to limit
+     * @param offset device-local offset (0..memory.getLength()-1)
+     * @throws IOException if the image does not fit or a memory access error occurs
+     */
+    protected void loadProgramBytes(final PhysicalMemory memory,
+                                         final ByteBuffer source,
+                                         final int offset) throws IOException {
         final int memLen = memory.getLength();
+        final int length = source.remaining();
         if (offset < 0) {
             throw new IOException("Negative memory offset: " + offset);
         }
-        if ((long) offset + source.length > memLen) {
+        if ((long) offset + length > memLen) {
             throw new IOException(String.format("Image (length=%d) does not fit at offset 0x%X (memory size=%d)",
-                    source.length, offset, memLen));
+                    length, offset, memLen));
         }
 
         try {
-            for (int i = 0; i < source.length; i++) {
-                final long unsigned = source[i] & 0xFFL;
-                memory.store(offset + i, unsigned, Sizes.SIZE_8_LOG2);
-            }
+            // One bulk copy into the backing store instead of one virtual store() call per byte.
+            memory.store(offset, source.duplicate());
         } catch (MemoryAccessException mae) {
             throw new IOException("Failed to write to physical memory", mae);
         }
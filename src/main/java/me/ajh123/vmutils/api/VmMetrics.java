@@ -0,0 +1,259 @@
+package me.ajh123.vmutils.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runtime counters of one {@link VirtualMachine}: execution speed and pacing, console and disk traffic,
+ * restarts. Machines record into it from their run loop and device threads; anyone may read it at any
+ * time, directly or over JMX (see {@link VirtualMachine#registerMetrics(String)}).
+ * <p>
+ * Recording is cheap enough for hot paths: counters are {@link LongAdder}s, which never contend between
+ * threads, and machines record per slice or per request rather than per cycle or per byte.
+ */
+public final class VmMetrics implements VmMetricsMXBean {
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final VirtualMachine vm;
+
+    private final LongAdder cycles = new LongAdder();
+    private final LongAdder scheduleResets = new LongAdder();
+    private final LongAdder lostTimeNanos = new LongAdder();
+    private final LongAccumulator peakBehindScheduleNanos = new LongAccumulator(Math::max, 0);
+    private volatile long behindScheduleNanos = 0;
+    private final LongAdder sleeps = new LongAdder();
+    private final LongAdder sleepOvershootNanos = new LongAdder();
+    private final LongAccumulator maxSleepOvershootNanos = new LongAccumulator(Math::max, 0);
+
+    private final LongAdder uartBytesIn = new LongAdder();
+    private final LongAdder uartBytesOut = new LongAdder();
+    private final LongAdder consoleBytesDropped = new LongAdder();
+
+    private final LongAdder blockReadOps = new LongAdder();
+    private final LongAdder blockWriteOps = new LongAdder();
+    private final LongAdder blockBytesRead = new LongAdder();
+    private final LongAdder blockBytesWritten = new LongAdder();
+
+    private final LongAdder restarts = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+
+    // console rates, worked out when read; only readers touch these
+    private final ReentrantLock rateLock = new ReentrantLock();
+    private long rateSampleNanos = System.nanoTime();
+    private long rateSampleIn = 0;
+    private long rateSampleOut = 0;
+    private double bytesInPerSecond = 0;
+    private double bytesOutPerSecond = 0;
+
+    VmMetrics(VirtualMachine vm) {
+        this.vm = vm;
+    }
+
+    // ---------- Recording ----------
+
+    public void addCycles(long count) {
+        cycles.add(count);
+    }
+
+    /** Record how late a slice started relative to its schedule; 0 when on time. */
+    public void recordBehindSchedule(long nanos) {
+        behindScheduleNanos = nanos;
+        peakBehindScheduleNanos.accumulate(nanos);
+    }
+
+    /** Record that the schedule was reset, dropping {@code lostNanos} of time the guest will never run. */
+    public void recordScheduleReset(long lostNanos) {
+        scheduleResets.increment();
+        lostTimeNanos.add(lostNanos);
+    }
+
+    /** Record a wait that ended {@code overshootNanos} after its deadline. */
+    public void recordSleepOvershoot(long overshootNanos) {
+        sleeps.increment();
+        sleepOvershootNanos.add(overshootNanos);
+        maxSleepOvershootNanos.accumulate(overshootNanos);
+    }
+
+    public void addUartBytesIn(long count) {
+        uartBytesIn.add(count);
+    }
+
+    public void addUartBytesOut(long count) {
+        uartBytesOut.add(count);
+    }
+
+    public void addConsoleBytesDropped(long count) {
+        consoleBytesDropped.add(count);
+    }
+
+    public void recordBlockRead() {
+        blockReadOps.increment();
+    }
+
+    public void recordBlockWrite() {
+        blockWriteOps.increment();
+    }
+
+    public void addBlockBytesRead(long count) {
+        blockBytesRead.add(count);
+    }
+
+    public void addBlockBytesWritten(long count) {
+        blockBytesWritten.add(count);
+    }
+
+    public void recordRestart() {
+        restarts.increment();
+    }
+
+    public void recordReset() {
+        resets.increment();
+    }
+
+    // ---------- Reading ----------
+
+    @Override
+    public boolean isRunning() {
+        return vm.isRunning();
+    }
+
+    @Override
+    public boolean isIdle() {
+        return vm.isIdle();
+    }
+
+    @Override
+    public long getCyclesExecuted() {
+        return cycles.sum();
+    }
+
+    @Override
+    public double getTargetMHz() {
+        return vm.getFrequency() / 1_000_000.0;
+    }
+
+    @Override
+    public double getEffectiveMHz() {
+        return vm.getEffectiveMHz();
+    }
+
+    @Override
+    public double getSpeedRatio() {
+        final double target = getTargetMHz();
+        return target > 0 ? getEffectiveMHz() / target : 0;
+    }
+
+    @Override
+    public long getBehindScheduleNanos() {
+        return behindScheduleNanos;
+    }
+
+    @Override
+    public long getPeakBehindScheduleNanos() {
+        return peakBehindScheduleNanos.get();
+    }
+
+    @Override
+    public long getScheduleResets() {
+        return scheduleResets.sum();
+    }
+
+    @Override
+    public long getLostTimeNanos() {
+        return lostTimeNanos.sum();
+    }
+
+    @Override
+    public long getAverageSleepOvershootNanos() {
+        final long count = sleeps.sum();
+        return count > 0 ? sleepOvershootNanos.sum() / count : 0;
+    }
+
+    @Override
+    public long getMaxSleepOvershootNanos() {
+        return maxSleepOvershootNanos.get();
+    }
+
+    @Override
+    public long getUartBytesIn() {
+        return uartBytesIn.sum();
+    }
+
+    @Override
+    public long getUartBytesOut() {
+        return uartBytesOut.sum();
+    }
+
+    @Override
+    public double getUartBytesInPerSecond() {
+        rateLock.lock();
+        try {
+            updateRatesLocked();
+            return bytesInPerSecond;
+        } finally {
+            rateLock.unlock();
+        }
+    }
+
+    @Override
+    public double getUartBytesOutPerSecond() {
+        rateLock.lock();
+        try {
+            updateRatesLocked();
+            return bytesOutPerSecond;
+        } finally {
+            rateLock.unlock();
+        }
+    }
+
+    @Override
+    public long getConsoleBytesDropped() {
+        return consoleBytesDropped.sum();
+    }
+
+    @Override
+    public long getBlockReadOps() {
+        return blockReadOps.sum();
+    }
+
+    @Override
+    public long getBlockWriteOps() {
+        return blockWriteOps.sum();
+    }
+
+    @Override
+    public long getBlockBytesRead() {
+        return blockBytesRead.sum();
+    }
+
+    @Override
+    public long getBlockBytesWritten() {
+        return blockBytesWritten.sum();
+    }
+
+    @Override
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    @Override
+    public long getResets() {
+        return resets.sum();
+    }
+
+    // Work out the console rates over the time since they were last worked out, if that is long enough
+    private void updateRatesLocked() {
+        final long now = System.nanoTime();
+        final long elapsed = now - rateSampleNanos;
+        if (elapsed < RATE_WINDOW_NANOS) return;
+        final long in = uartBytesIn.sum();
+        final long out = uartBytesOut.sum();
+        bytesInPerSecond = (in - rateSampleIn) * 1e9 / elapsed;
+        bytesOutPerSecond = (out - rateSampleOut) * 1e9 / elapsed;
+        rateSampleNanos = now;
+        rateSampleIn = in;
+        rateSampleOut = out;
+    }
+}
@@ -0,0 +1,66 @@
+package me.ajh123.vmutils.api;
+
+/**
+ * Management view of a {@link VirtualMachine}'s {@link VmMetrics}, as published over JMX by
+ * {@link VirtualMachine#registerMetrics(String)}. Counters are totals since the machine was created.
+ */
+public interface VmMetricsMXBean {
+    boolean isRunning();
+
+    boolean isIdle();
+
+    /** @return CPU cycles executed */
+    long getCyclesExecuted();
+
+    /** @return the emulated CPU frequency the machine is paced to */
+    double getTargetMHz();
+
+    /** @return the CPU frequency achieved over the last second or so */
+    double getEffectiveMHz();
+
+    /** @return effective over target frequency; well below 1 means the host cannot keep up */
+    double getSpeedRatio();
+
+    /** @return how far behind its schedule the machine was at its most recent slice */
+    long getBehindScheduleNanos();
+
+    long getPeakBehindScheduleNanos();
+
+    /** @return how often the machine fell too far behind and the lost time was dropped */
+    long getScheduleResets();
+
+    /** @return real time dropped by schedule resets, i.e. time the guest never got to run */
+    long getLostTimeNanos();
+
+    /** @return how much later than asked the run loop woke from its waits, on average */
+    long getAverageSleepOvershootNanos();
+
+    long getMaxSleepOvershootNanos();
+
+    long getUartBytesIn();
+
+    long getUartBytesOut();
+
+    /** @return console input rate, averaged since the previous rate reading (over at least a second) */
+    double getUartBytesInPerSecond();
+
+    /** @return console output rate, averaged since the previous rate reading (over at least a second) */
+    double getUartBytesOutPerSecond();
+
+    /** @return console output discarded because the viewer could not keep up */
+    long getConsoleBytesDropped();
+
+    long getBlockReadOps();
+
+    long getBlockWriteOps();
+
+    long getBlockBytesRead();
+
+    long getBlockBytesWritten();
+
+    /** @return how often the guest restarted itself */
+    long getRestarts();
+
+    /** @return how often the host reset the machine */
+    long getResets();
+}
@@ -38,9 +38,13 @@ public class DeviceRegistry {
             this.factory = factory;
         }
 
-        /** Create and store the device internally. */
-        public void attach(Map<String, Object> options, R5Board board, PhysicalMemory memory) throws IOException {
+        /**
+         * Create and store the device internally. The created device is also returned, since a type is
+         * shared between all machines and {@link #getDevice()} only remembers the most recent one.
+         */
+        public T attach(Map<String, Object> options, R5Board board, PhysicalMemory memory) throws IOException {
             this.device = factory.create(options, board, memory);
+            return this.device;
         }
 
         /** Get the previously created device. */
@@ -1,10 +1,17 @@
 package me.ajh123.vmutils.device;
 
+import li.cil.sedna.api.device.BlockDevice;
 import li.cil.sedna.device.block.ByteBufferBlockDevice;
 import li.cil.sedna.device.serial.UART16550A;
 import li.cil.sedna.device.virtio.VirtIOBlockDevice;
+import me.ajh123.vmutils.device.block.CopyOnWriteBlockDevice;
+import me.ajh123.vmutils.device.block.MappedFileBlockDevice;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
 
 public class Devices {
     public static final DeviceRegistry REGISTRY = new DeviceRegistry();
@@ -34,12 +41,11 @@ public class Devices {
                     irq = (Integer) options.get("irq");
                 }
 
-                byte[] fsBytes = (byte[]) options.get("fsBytes");
-                final ByteArrayInputStream bais = new ByteArrayInputStream(fsBytes);
+                final BlockDevice block = createBlockDevice(options);
 
                 VirtIOBlockDevice vbd = new VirtIOBlockDevice(
                         board.getMemoryMap(),
-                        ByteBufferBlockDevice.createFromStream(bais, true)
+                        block
                 );
                 vbd.getInterrupt().set(irq, board.getInterruptController());
                 board.addDevice(vbd);
@@ -47,6 +53,39 @@ public class Devices {
             })
     );
 
+    /**
+     * Create the backing store for a virtio block device from factory options: "blockDevice" (an existing
+     * device, used as is), "fsFile" (a disk image Path, see "writable"), "baseImage" (a shared ByteBuffer)
+     * or "fsBytes" (a byte[] copied into a read-only device). Image files and base images are read-only to
+     * the guest unless "overlay" is true, in which case guest writes go to a private copy-on-write overlay.
+     */
+    public static BlockDevice createBlockDevice(Map<String, Object> options) throws IOException {
+        if (options.containsKey("blockDevice")) {
+            return (BlockDevice) options.get("blockDevice");
+        }
+        if (options.containsKey("fsFile")) {
+            // Memory-mapped disk image: no heap copy, page cache shared with other processes.
+            // Unless explicitly writable, the mapping is read-only and so is the disk, or guest
+            // writes stay in a private copy-on-write overlay if one was asked for.
+            Path fsFile = (Path) options.get("fsFile");
+            boolean writable = Boolean.TRUE.equals(options.get("writable"));
+            MappedFileBlockDevice mapped = MappedFileBlockDevice.open(fsFile, !writable);
+            return writable ? mapped : new CopyOnWriteBlockDevice(mapped, CopyOnWriteBlockDevice.DEFAULT_BLOCK_SIZE, !overlay(options));
+        }
+        if (options.containsKey("baseImage")) {
+            // Shared, immutable base image, read-only or with a private copy-on-write overlay per device.
+            ByteBuffer baseImage = (ByteBuffer) options.get("baseImage");
+            return new CopyOnWriteBlockDevice(baseImage, !overlay(options));
+        }
+        byte[] fsBytes = (byte[]) options.get("fsBytes");
+        final ByteArrayInputStream bais = new ByteArrayInputStream(fsBytes);
+        return ByteBufferBlockDevice.createFromStream(bais, true);
+    }
+
+    private static boolean overlay(Map<String, Object> options) {
+        return Boolean.TRUE.equals(options.get("overlay"));
+    }
+
     public static void initialise() {
         // do nothing except get static members ready
     }
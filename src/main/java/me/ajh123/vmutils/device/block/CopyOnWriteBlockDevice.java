@@ -0,0 +1,224 @@
+package me.ajh123.vmutils.device.block;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A block device layered over an immutable base image. Reads are served from the base image until a
+ * block is written, at which point that block is copied into a private, sparse overlay owned by this
+ * device. Many devices can share one base image; each only pays for the blocks its guest has written.
+ */
+public class CopyOnWriteBlockDevice extends RandomAccessBlockDevice {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    // Overlay blocks are kept in a two level table so untouched regions of large images cost nothing.
+    private static final int DIRECTORY_SHIFT = 10;
+    private static final int DIRECTORY_SIZE = 1 << DIRECTORY_SHIFT;
+    private static final int DIRECTORY_MASK = DIRECTORY_SIZE - 1;
+
+    private final RandomAccessBlockDevice base;
+    private final long capacity;
+    private final int blockSize;
+    private final boolean readonly;
+    private byte[][][] overlay;
+    private int overlayBlocks = 0;
+
+    public CopyOnWriteBlockDevice(ByteBuffer base) {
+        this(base, false);
+    }
+
+    public CopyOnWriteBlockDevice(ByteBuffer base, boolean readonly) {
+        this(new BufferImage(base), DEFAULT_BLOCK_SIZE, readonly);
+    }
+
+    public CopyOnWriteBlockDevice(RandomAccessBlockDevice base) {
+        this(base, DEFAULT_BLOCK_SIZE, false);
+    }
+
+    /**
+     * @param base      the shared base image; it is only ever read from
+     * @param blockSize granularity of copy-on-write, must be a power of two
+     * @param readonly  whether the guest may write at all
+     */
+    public CopyOnWriteBlockDevice(RandomAccessBlockDevice base, int blockSize, boolean readonly) {
+        Objects.requireNonNull(base, "base");
+        if (blockSize <= 0 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a positive power of two: " + blockSize);
+        }
+        this.base = base;
+        this.capacity = base.getCapacity();
+        this.blockSize = blockSize;
+        this.readonly = readonly;
+        this.overlay = new byte[directoryCount()][][];
+    }
+
+    @Override
+    public boolean isReadonly() {
+        return readonly;
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** Number of bytes held privately by this device, i.e. the blocks written so far. */
+    public long getOverlaySize() {
+        return (long) overlayBlocks * blockSize;
+    }
+
+    /** Drop all private blocks so the device reads as the pristine base image again. */
+    public void discardChanges() {
+        overlay = new byte[directoryCount()][][];
+        overlayBlocks = 0;
+    }
+
+    /**
+     * Write the private blocks, so that a device over the same base image can be brought back to this
+     * state with {@link #readOverlay(DataInput)}.
+     */
+    public void writeOverlay(DataOutput out) throws IOException {
+        out.writeLong(capacity);
+        out.writeInt(blockSize);
+        out.writeInt(overlayBlocks);
+        for (int d = 0; d < overlay.length; d++) {
+            final byte[][] directory = overlay[d];
+            if (directory == null) continue;
+            for (int i = 0; i < DIRECTORY_SIZE; i++) {
+                if (directory[i] != null) {
+                    out.writeInt((d << DIRECTORY_SHIFT) | i);
+                    out.write(directory[i]);
+                }
+            }
+        }
+    }
+
+    /** Replace the private blocks with ones previously written by {@link #writeOverlay(DataOutput)}. */
+    public void readOverlay(DataInput in) throws IOException {
+        final long savedCapacity = in.readLong();
+        final int savedBlockSize = in.readInt();
+        if (savedCapacity != capacity || savedBlockSize != blockSize) {
+            throw new IOException(String.format("Overlay (capacity=%d, block size=%d) does not match device (capacity=%d, block size=%d)",
+                    savedCapacity, savedBlockSize, capacity, blockSize));
+        }
+        discardChanges();
+        final int count = in.readInt();
+        for (int n = 0; n < count; n++) {
+            final int index = in.readInt();
+            if (index < 0 || (long) index * blockSize >= capacity) {
+                throw new IOException("Overlay block out of range: " + index);
+            }
+            final byte[] block = getOrCopyBlock(index);
+            in.readFully(block);
+        }
+    }
+
+    @Override
+    public void read(long position, byte[] b, int off, int len) {
+        while (len > 0) {
+            final int inBlock = blockOffset(position);
+            final int count = Math.min(len, blockSize - inBlock);
+            final byte[] block = getOverlayBlock(blockIndex(position));
+            if (block != null) {
+                System.arraycopy(block, inBlock, b, off, count);
+            } else {
+                base.read(position, b, off, count);
+            }
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] b, int off, int len) {
+        while (len > 0) {
+            final int inBlock = blockOffset(position);
+            final int count = Math.min(len, blockSize - inBlock);
+            System.arraycopy(b, off, getOrCopyBlock(blockIndex(position)), inBlock, count);
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void close() {
+        // the base image is shared and owned by whoever created it; only release our own blocks
+        discardChanges();
+    }
+
+    // ---------- Helpers ----------
+
+    private int directoryCount() {
+        final long blocks = (capacity + blockSize - 1) / blockSize;
+        return (int) ((blocks + DIRECTORY_SIZE - 1) >>> DIRECTORY_SHIFT);
+    }
+
+    private int blockIndex(long position) {
+        return (int) (position / blockSize);
+    }
+
+    private int blockOffset(long position) {
+        return (int) (position & (blockSize - 1));
+    }
+
+    private byte[] getOverlayBlock(int index) {
+        final byte[][] directory = overlay[index >>> DIRECTORY_SHIFT];
+        return directory != null ? directory[index & DIRECTORY_MASK] : null;
+    }
+
+    private byte[] getOrCopyBlock(int index) {
+        byte[][] directory = overlay[index >>> DIRECTORY_SHIFT];
+        if (directory == null) {
+            directory = new byte[DIRECTORY_SIZE][];
+            overlay[index >>> DIRECTORY_SHIFT] = directory;
+        }
+        byte[] block = directory[index & DIRECTORY_MASK];
+        if (block == null) {
+            block = new byte[blockSize];
+            final long start = (long) index * blockSize;
+            final int length = (int) Math.min(blockSize, capacity - start);
+            base.read(start, block, 0, length);
+            directory[index & DIRECTORY_MASK] = block;
+            overlayBlocks++;
+        }
+        return block;
+    }
+
+    /** Read-only view of an in-memory image, used as the base of a copy-on-write device. */
+    private static final class BufferImage extends RandomAccessBlockDevice {
+        private final ByteBuffer data;
+
+        BufferImage(ByteBuffer data) {
+            this.data = Objects.requireNonNull(data, "base").slice().asReadOnlyBuffer();
+        }
+
+        @Override
+        public boolean isReadonly() {
+            return true;
+        }
+
+        @Override
+        public long getCapacity() {
+            return data.capacity();
+        }
+
+        @Override
+        public void read(long position, byte[] b, int off, int len) {
+            data.get((int) position, b, off, len);
+        }
+
+        @Override
+        public void write(long position, byte[] b, int off, int len) {
+            throw new UnsupportedOperationException("Base image is read-only");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
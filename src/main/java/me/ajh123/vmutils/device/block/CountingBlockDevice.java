@@ -0,0 +1,92 @@
+package me.ajh123.vmutils.device.block;
+
+import li.cil.sedna.api.device.BlockDevice;
+import me.ajh123.vmutils.api.VmMetrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Passes everything through to another block device and records the traffic in {@link VmMetrics}. Each
+ * stream the virtio device opens is one request, so opening a stream counts an operation, and bytes are
+ * counted as they move through it.
+ */
+public class CountingBlockDevice implements BlockDevice {
+    private final BlockDevice device;
+    private final VmMetrics metrics;
+
+    public CountingBlockDevice(BlockDevice device, VmMetrics metrics) {
+        this.device = Objects.requireNonNull(device, "device");
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+    }
+
+    /** @return the device being counted */
+    public BlockDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public boolean isReadonly() {
+        return device.isReadonly();
+    }
+
+    @Override
+    public long getCapacity() {
+        return device.getCapacity();
+    }
+
+    @Override
+    public InputStream getInputStream(long offset) {
+        final InputStream stream = device.getInputStream(offset);
+        metrics.recordBlockRead();
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                final int value = super.read();
+                if (value >= 0) metrics.addBlockBytesRead(1);
+                return value;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int count = super.read(b, off, len);
+                if (count > 0) metrics.addBlockBytesRead(count);
+                return count;
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream(long offset) {
+        final OutputStream stream = device.getOutputStream(offset);
+        metrics.recordBlockWrite();
+        return new FilterOutputStream(stream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                metrics.addBlockBytesWritten(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // FilterOutputStream would write byte by byte
+                out.write(b, off, len);
+                metrics.addBlockBytesWritten(len);
+            }
+        };
+    }
+
+    @Override
+    public void flush() {
+        device.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        device.close();
+    }
+}
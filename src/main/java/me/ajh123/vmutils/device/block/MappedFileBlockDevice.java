@@ -0,0 +1,121 @@
+package me.ajh123.vmutils.device.block;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A block device backed by a memory-mapped disk image on local storage. Nothing is copied onto the
+ * heap: reads and writes go straight to the mapping, so the OS page cache is the only copy and is
+ * shared with every other process mapping the same file.
+ * <p>
+ * Images larger than 2 GiB are mapped in several segments since a single mapping is int-indexed.
+ * <p>
+ * {@link #close()} writes all changes back to the file, but the JDK has no portable way to unmap a
+ * file: the mappings stay alive until the garbage collector reclaims them. Until then the file remains
+ * mapped, which on Windows means it cannot be deleted or truncated.
+ */
+public class MappedFileBlockDevice extends RandomAccessBlockDevice {
+    private static final int SEGMENT_SHIFT = 30; // 1 GiB per mapping
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final Path path;
+    private final long capacity;
+    private final boolean readonly;
+    private MappedByteBuffer[] segments;
+
+    private MappedFileBlockDevice(Path path, long capacity, boolean readonly, MappedByteBuffer[] segments) {
+        this.path = path;
+        this.capacity = capacity;
+        this.readonly = readonly;
+        this.segments = segments;
+    }
+
+    /**
+     * Map the given disk image.
+     *
+     * @param path     the image file; its current size is the capacity of the device
+     * @param readonly whether to map the file read-only; writable mappings write through to the file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MappedFileBlockDevice open(Path path, boolean readonly) throws IOException {
+        final FileChannel.MapMode mode = readonly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        final StandardOpenOption[] openOptions = readonly
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+
+        // Mappings stay valid after the channel is closed, so there is no handle to keep around.
+        try (FileChannel channel = FileChannel.open(path, openOptions)) {
+            final long capacity = channel.size();
+            final int count = (int) ((capacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            final MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                final long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(mode, start, Math.min(SEGMENT_SIZE, capacity - start));
+            }
+            return new MappedFileBlockDevice(path, capacity, readonly, segments);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean isReadonly() {
+        return readonly;
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void read(long position, byte[] b, int off, int len) {
+        while (len > 0) {
+            final MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            final int inSegment = (int) (position & SEGMENT_MASK);
+            final int count = Math.min(len, segment.capacity() - inSegment);
+            segment.get(inSegment, b, off, count);
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] b, int off, int len) {
+        while (len > 0) {
+            final MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            final int inSegment = (int) (position & SEGMENT_MASK);
+            final int count = Math.min(len, segment.capacity() - inSegment);
+            segment.put(inSegment, b, off, count);
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (readonly) return;
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!readonly) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+        // unmapping is left to the garbage collector, see the class comment
+        segments = new MappedByteBuffer[0];
+    }
+}
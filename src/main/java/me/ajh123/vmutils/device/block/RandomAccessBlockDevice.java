@@ -0,0 +1,97 @@
+package me.ajh123.vmutils.device.block;
+
+import li.cil.sedna.api.device.BlockDevice;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Base for block devices that can be read and written at arbitrary positions. Provides the
+ * stream views {@link BlockDevice} expects on top of two positional bulk operations.
+ */
+public abstract class RandomAccessBlockDevice implements BlockDevice {
+    /**
+     * Read {@code len} bytes starting at {@code position} into {@code b}. Callers guarantee that the
+     * whole range lies within the device.
+     */
+    public abstract void read(long position, byte[] b, int off, int len);
+
+    /**
+     * Write {@code len} bytes from {@code b} starting at {@code position}. Callers guarantee that the
+     * whole range lies within the device and that the device is writable.
+     */
+    public abstract void write(long position, byte[] b, int off, int len);
+
+    @Override
+    public InputStream getInputStream(long offset) {
+        checkOffset(offset);
+        return new InputStream() {
+            private final byte[] single = new byte[1];
+            private long position = offset;
+
+            @Override
+            public int read() {
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                Objects.checkFromIndexSize(off, len, b.length);
+                if (len == 0) return 0;
+                final long capacity = getCapacity();
+                if (position >= capacity) return -1;
+                final int count = (int) Math.min(len, capacity - position);
+                RandomAccessBlockDevice.this.read(position, b, off, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public long skip(long n) {
+                final long skipped = Math.max(0, Math.min(n, getCapacity() - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, getCapacity() - position);
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream(long offset) {
+        checkOffset(offset);
+        if (isReadonly()) {
+            throw new UnsupportedOperationException("Block device is read-only");
+        }
+        return new OutputStream() {
+            private final byte[] single = new byte[1];
+            private long position = offset;
+
+            @Override
+            public void write(int b) {
+                single[0] = (byte) b;
+                write(single, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                Objects.checkFromIndexSize(off, len, b.length);
+                if (position + len > getCapacity()) {
+                    throw new IndexOutOfBoundsException("Write past end of device");
+                }
+                RandomAccessBlockDevice.this.write(position, b, off, len);
+                position += len;
+            }
+        };
+    }
+
+    private void checkOffset(long offset) {
+        if (offset < 0 || offset > getCapacity()) {
+            throw new IndexOutOfBoundsException("Offset out of range: " + offset);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package me.ajh123.vmutils.device.memory;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Guest RAM that records which pages have been written since a baseline was marked. Restoring the
+ * baseline then only copies back the dirty pages, so a reset costs time in proportion to how much
+ * memory the guest touched rather than to the size of RAM.
+ * <p>
+ * The baseline copy is as large as RAM and is only allocated by the first {@link #markBaseline()}. Without
+ * one, {@link #zeroDirtyPages()} brings RAM back to its all-zero power-on state at the same cost.
+ */
+public class DirtyTrackingMemory implements PhysicalMemory {
+    public static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ByteBuffer data;
+    private final int length;
+    private final long[] dirty; // one bit per page
+    private ByteBuffer baseline;
+
+    public DirtyTrackingMemory(int size) {
+        if (size <= 0 || (size & PAGE_MASK) != 0) {
+            throw new IllegalArgumentException("Memory size must be a positive multiple of " + PAGE_SIZE + ": " + size);
+        }
+        this.data = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        this.length = size;
+        this.dirty = new long[((size >>> PAGE_SHIFT) + 63) >>> 6];
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public long load(int offset, int sizeLog2) throws MemoryAccessException {
+        checkRange(offset, 1 << sizeLog2);
+        return switch (sizeLog2) {
+            case Sizes.SIZE_8_LOG2 -> data.get(offset);
+            case Sizes.SIZE_16_LOG2 -> data.getShort(offset);
+            case Sizes.SIZE_32_LOG2 -> data.getInt(offset);
+            case Sizes.SIZE_64_LOG2 -> data.getLong(offset);
+            default -> throw new IllegalArgumentException("Unsupported access size: " + sizeLog2);
+        };
+    }
+
+    @Override
+    public void store(int offset, long value, int sizeLog2) throws MemoryAccessException {
+        checkRange(offset, 1 << sizeLog2);
+        switch (sizeLog2) {
+            case Sizes.SIZE_8_LOG2 -> data.put(offset, (byte) value);
+            case Sizes.SIZE_16_LOG2 -> data.putShort(offset, (short) value);
+            case Sizes.SIZE_32_LOG2 -> data.putInt(offset, (int) value);
+            case Sizes.SIZE_64_LOG2 -> data.putLong(offset, value);
+            default -> throw new IllegalArgumentException("Unsupported access size: " + sizeLog2);
+        }
+        markDirty(offset, 1 << sizeLog2);
+    }
+
+    @Override
+    public void load(int offset, ByteBuffer dst) throws MemoryAccessException {
+        checkRange(offset, dst.remaining());
+        final int count = dst.remaining();
+        dst.put(dst.position(), data, offset, count);
+        dst.position(dst.position() + count);
+    }
+
+    @Override
+    public void store(int offset, ByteBuffer src) throws MemoryAccessException {
+        checkRange(offset, src.remaining());
+        final int count = src.remaining();
+        data.put(offset, src, src.position(), count);
+        src.position(src.position() + count);
+        markDirty(offset, count);
+    }
+
+    // ---------- Baseline ----------
+
+    /** Remember the current contents as the baseline and start tracking writes from here. */
+    public void markBaseline() {
+        if (baseline == null) {
+            baseline = ByteBuffer.allocateDirect(length);
+        }
+        baseline.put(0, data, 0, length);
+        clearDirty();
+    }
+
+    public boolean hasBaseline() {
+        return baseline != null;
+    }
+
+    /**
+     * Copy the baseline back over every page written since it was marked.
+     *
+     * @return the number of pages restored
+     * @throws IllegalStateException if no baseline has been marked
+     */
+    public int resetToBaseline() {
+        if (baseline == null) {
+            throw new IllegalStateException("No baseline marked");
+        }
+        int restored = 0;
+        for (int word = 0; word < dirty.length; word++) {
+            long bits = dirty[word];
+            while (bits != 0) {
+                final int page = (word << 6) + Long.numberOfTrailingZeros(bits);
+                final int offset = page << PAGE_SHIFT;
+                data.put(offset, baseline, offset, PAGE_SIZE);
+                bits &= bits - 1;
+                restored++;
+            }
+            dirty[word] = 0;
+        }
+        return restored;
+    }
+
+    /**
+     * Fill every page written since creation, or since the last call, with zeros, and stop tracking them.
+     * Without a baseline this returns RAM to its power-on contents.
+     *
+     * @return the number of pages cleared
+     * @throws IllegalStateException if a baseline has been marked, since pages are then tracked relative to it
+     */
+    public int zeroDirtyPages() {
+        if (baseline != null) {
+            throw new IllegalStateException("Baseline marked; use resetToBaseline()");
+        }
+        int cleared = 0;
+        for (int word = 0; word < dirty.length; word++) {
+            long bits = dirty[word];
+            while (bits != 0) {
+                final int page = (word << 6) + Long.numberOfTrailingZeros(bits);
+                final int offset = page << PAGE_SHIFT;
+                for (int i = 0; i < PAGE_SIZE; i += Long.BYTES) {
+                    data.putLong(offset + i, 0);
+                }
+                bits &= bits - 1;
+                cleared++;
+            }
+            dirty[word] = 0;
+        }
+        return cleared;
+    }
+
+    /** Number of pages written since the baseline was marked (or since creation if it never was). */
+    public int getDirtyPageCount() {
+        int count = 0;
+        for (long bits : dirty) {
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    // ---------- Helpers ----------
+
+    private void markDirty(int offset, int count) {
+        if (count == 0) return;
+        final int first = offset >>> PAGE_SHIFT;
+        final int last = (offset + count - 1) >>> PAGE_SHIFT;
+        for (int page = first; page <= last; page++) {
+            dirty[page >>> 6] |= 1L << page;
+        }
+    }
+
+    private void clearDirty() {
+        Arrays.fill(dirty, 0);
+    }
+
+    private void checkRange(int offset, int count) throws MemoryAccessException {
+        if (offset < 0 || count > length - offset) {
+            throw new MemoryAccessException();
+        }
+    }
+}
@@ -5,23 +5,69 @@ import me.ajh123.vmutils.api.Terminal;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
+/**
+ * Terminal drawn onto an AWT/Swing component.
+ * <p>
+ * The screen is kept in a back buffer image. Damage reported by {@link Terminal} marks cells stale and
+ * asks the component to repaint just that area; {@link #drawAll(Graphics)} then re-renders only the stale
+ * cells into the back buffer and copies the buffer out, so exposing or resizing the window costs a blit.
+ * Stale cells are rendered from a {@link Frame} snapshot, so a frame never shows half of an escape
+ * sequence's effect and the VM thread never waits for painting. Cells are rendered a row at a time
+ * straight into the buffer's pixels: runs of equal background become one fill, and glyphs are blended
+ * from a {@link GlyphAtlas} instead of laid out as text each time.
+ */
 public class AWTTerminal extends Terminal implements KeyListener {
     private final Component target;   // Component to draw onto
     private final int cellWidth;
     private final int cellHeight;
     private final Font font;
+    private volatile int viewOffset = 0; // how many lines back into the scrollback the view is
+    private final byte[] keyBytes = new byte[3]; // only used on the event thread
+
+    // Rendering state; back buffer and atlas are only touched on the event thread (in drawAll)
+    private final BufferedImage backBuffer;
+    private final int[] pixels; // backBuffer's pixels, written directly
+    private final GlyphAtlas glyphs;
+    private final Object staleLock = new Object();
+    private final int[] staleFrom; // per row, first stale column (cols when the row is up to date)
+    private final int[] staleTo;   // per row, last stale column
+    private boolean anyStale = false;
+    private final int[] renderFrom; // copies of the above taken by renderStale
+    private final int[] renderTo;
+    private final Frame frame; // what renderStale draws from, copied from the terminal in one consistent piece
 
     public AWTTerminal(int rows, int cols, Component target, int cellWidth, int cellHeight, Color foreground, Color background) {
-        super(rows, cols, foreground, background);
+        this(rows, cols, target, cellWidth, cellHeight, foreground, background, DEFAULT_SCROLLBACK_LINES);
+    }
+
+    public AWTTerminal(int rows, int cols, Component target, int cellWidth, int cellHeight, Color foreground, Color background,
+                       int scrollbackLines) {
+        super(rows, cols, foreground, background, scrollbackLines);
         this.target = target;
         this.cellWidth = cellWidth;
         this.cellHeight = cellHeight;
         this.font = new Font("Monospaced", Font.PLAIN, cellHeight - 2);
+        this.backBuffer = new BufferedImage(cols * cellWidth, rows * cellHeight, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) backBuffer.getRaster().getDataBuffer()).getData();
+        this.glyphs = new GlyphAtlas(font, cellWidth, cellHeight);
+        this.staleFrom = new int[rows];
+        this.staleTo = new int[rows];
+        this.renderFrom = new int[rows];
+        this.renderTo = new int[rows];
+        this.frame = newFrame();
+        Arrays.fill(staleFrom, cols);
+        Arrays.fill(staleTo, -1);
+        markStale(0, rows - 1, 0, cols - 1);
     }
 
     @Override
     public void refresh() {
+        if (staleFrom == null) return; // frame delivered while the constructor is still running
+        markStale(0, state.rows - 1, 0, state.cols - 1);
         if (target != null) {
             target.repaint();
         }
@@ -29,27 +75,104 @@ public class AWTTerminal extends Terminal implements KeyListener {
 
     @Override
     public void refreshCell(int row, int col) {
+        refreshRegion(row, row, col, col);
+    }
+
+    @Override
+    public void refreshRegion(int firstRow, int lastRow, int firstCol, int lastCol) {
+        if (staleFrom == null) return;
+        if (viewOffset != 0) {
+            // the view is scrolled back, so screen rows are drawn elsewhere; redraw it all
+            refresh();
+            return;
+        }
+        markStale(firstRow, lastRow, firstCol, lastCol);
         if (target != null) {
-            target.repaint(col * cellWidth, row * cellHeight, cellWidth, cellHeight);
+            target.repaint(firstCol * cellWidth, firstRow * cellHeight,
+                    (lastCol - firstCol + 1) * cellWidth, (lastRow - firstRow + 1) * cellHeight);
+        }
+    }
+
+    // Scroll the view back into the scrollback (positive) or towards the live screen (negative)
+    public void scrollView(int lines) {
+        final int offset = Math.max(0, Math.min(state.getScrollbackSize(), viewOffset + lines));
+        if (offset != viewOffset) {
+            viewOffset = offset;
+            refresh();
         }
     }
 
+    // Paint the terminal; call from the target's paint method
     public void drawAll(Graphics g) {
-        g.setFont(font);
-        for (int r = 0; r < state.rows; r++) {
-            for (int c = 0; c < state.cols; c++) {
-                drawCell(g, r, c);
+        renderStale();
+        g.drawImage(backBuffer, 0, 0, null);
+    }
+
+    private void markStale(int firstRow, int lastRow, int firstCol, int lastCol) {
+        synchronized (staleLock) {
+            for (int r = firstRow; r <= lastRow; r++) {
+                if (firstCol < staleFrom[r]) staleFrom[r] = firstCol;
+                if (lastCol > staleTo[r]) staleTo[r] = lastCol;
             }
+            anyStale = true;
         }
     }
 
-    private void drawCell(Graphics g, int row, int col) {
-        g.setColor(state.bg[row][col]);
-        g.fillRect(col * cellWidth, row * cellHeight, cellWidth, cellHeight);
-        g.setColor(state.fg[row][col]);
-        g.drawString(String.valueOf(state.buffer[row][col]),
-                col * cellWidth + 2,
-                row * cellHeight + cellHeight - 2);
+    // Bring every stale cell in the back buffer up to date
+    private void renderStale() {
+        final int rows = state.rows;
+        final int[] from = renderFrom;
+        final int[] to = renderTo;
+        synchronized (staleLock) {
+            if (!anyStale) return;
+            System.arraycopy(staleFrom, 0, from, 0, rows);
+            System.arraycopy(staleTo, 0, to, 0, rows);
+            Arrays.fill(staleFrom, state.cols);
+            Arrays.fill(staleTo, -1);
+            anyStale = false;
+        }
+
+        // the VM thread keeps writing while we draw; draw from a copy that cannot change underneath us
+        snapshot(frame, viewOffset);
+        for (int r = 0; r < rows; r++) {
+            if (from[r] <= to[r]) {
+                renderRow(r, from[r], to[r]);
+            }
+        }
+    }
+
+    private void renderRow(int row, int firstCol, int lastCol) {
+        final int stride = backBuffer.getWidth();
+        final int top = row * cellHeight * stride;
+
+        // backgrounds: one fill per run of cells sharing a colour
+        int runStart = firstCol;
+        int runRgb = frame.getBackgroundRgb(row, firstCol);
+        for (int c = firstCol + 1; c <= lastCol + 1; c++) {
+            final int rgb = c <= lastCol ? frame.getBackgroundRgb(row, c) : -1;
+            if (rgb != runRgb) {
+                for (int line = 0, p = top + runStart * cellWidth; line < cellHeight; line++, p += stride) {
+                    Arrays.fill(pixels, p, p + (c - runStart) * cellWidth, runRgb);
+                }
+                runStart = c;
+                runRgb = rgb;
+            }
+        }
+
+        // glyphs from the atlas; blanks need nothing drawn
+        for (int c = firstCol; c <= lastCol; c++) {
+            final int codepoint = frame.getCodepoint(row, c);
+            final boolean underline = (frame.getAttributes(row, c) & TerminalState.ATTR_UNDERLINE) != 0;
+            if (codepoint <= ' ' && !underline) continue;
+            final int rgb = frame.getForegroundRgb(row, c);
+            if (codepoint > ' ') {
+                glyphs.draw(pixels, stride, codepoint, rgb, c * cellWidth, row * cellHeight);
+            }
+            if (underline) {
+                final int p = top + (cellHeight - 2) * stride + c * cellWidth;
+                Arrays.fill(pixels, p, p + cellWidth, rgb);
+            }
+        }
     }
 
     @Override
@@ -59,8 +182,34 @@ public class AWTTerminal extends Terminal implements KeyListener {
 
     @Override
     public void keyPressed(KeyEvent e) {
+        // Shift+PageUp/PageDown page through the scrollback locally; typing goes back to the live screen
+        if (e.isShiftDown() && (e.getKeyCode() == KeyEvent.VK_PAGE_UP || e.getKeyCode() == KeyEvent.VK_PAGE_DOWN)) {
+            scrollView(e.getKeyCode() == KeyEvent.VK_PAGE_UP ? state.rows / 2 : -state.rows / 2);
+            return;
+        }
+
         char keyChar = e.getKeyChar();
-        state.response.add(keyChar);
+        if (keyChar == KeyEvent.CHAR_UNDEFINED) return; // modifier or other key without a character; stay put
+        scrollView(-viewOffset);
+        final int length = encodeUtf8(keyChar, keyBytes);
+        queueInput(keyBytes, 0, length);
+    }
+
+    // Encode a typed character as UTF-8, the encoding the guest's tty expects
+    private static int encodeUtf8(char ch, byte[] out) {
+        if (ch < 0x80) {
+            out[0] = (byte) ch;
+            return 1;
+        }
+        if (ch < 0x800) {
+            out[0] = (byte) (0xC0 | ch >> 6);
+            out[1] = (byte) (0x80 | ch & 0x3F);
+            return 2;
+        }
+        out[0] = (byte) (0xE0 | ch >> 12);
+        out[1] = (byte) (0x80 | ch >> 6 & 0x3F);
+        out[2] = (byte) (0x80 | ch & 0x3F);
+        return 3;
     }
 
     @Override
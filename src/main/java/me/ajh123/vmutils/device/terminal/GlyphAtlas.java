@@ -0,0 +1,153 @@
+package me.ajh123.vmutils.device.terminal;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+/**
+ * Cache of pre-rasterised glyphs for one font and cell size. Each glyph is rasterised once, anti-aliased,
+ * into a cell-sized coverage mask (one byte of alpha per pixel); drawing it is then a loop blending the
+ * foreground colour into an {@code int[]} of RGB pixels, with no String, text layout or Graphics call.
+ * <p>
+ * Masks are colour independent, so one entry serves a character in every colour. The atlas holds at most
+ * {@value #MAX_GLYPHS} glyphs and starts over when full, which keeps its memory bounded. Only used from
+ * one thread (the one painting).
+ */
+final class GlyphAtlas {
+    private static final int MAX_GLYPHS = 4096;
+    private static final int EMPTY = -1;
+
+    private final Font font;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int maskSize;
+    private byte[] masks; // glyph masks back to back, maskSize bytes each
+    private int glyphCount = 0;
+
+    // open-addressing map from code point to glyph index
+    private int[] keys = new int[512];
+    private int[] values = new int[512];
+
+    // scratch image glyphs are rasterised into
+    private final BufferedImage scratch;
+    private final byte[] scratchPixels;
+
+    GlyphAtlas(Font font, int cellWidth, int cellHeight) {
+        this.font = font;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.maskSize = cellWidth * cellHeight;
+        this.masks = new byte[maskSize * 128];
+        Arrays.fill(keys, EMPTY);
+        this.scratch = new BufferedImage(cellWidth, cellHeight, BufferedImage.TYPE_BYTE_GRAY);
+        this.scratchPixels = ((DataBufferByte) scratch.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Blend a glyph in colour {@code rgb} into a cell of an RGB pixel array.
+     *
+     * @param pixels pixels of the destination, row after row
+     * @param stride pixels per row of the destination
+     * @param x      left edge of the cell
+     * @param y      top edge of the cell
+     */
+    void draw(int[] pixels, int stride, int codepoint, int rgb, int x, int y) {
+        int glyph = find(codepoint);
+        if (glyph < 0) {
+            glyph = rasterise(codepoint);
+        }
+        final byte[] mask = masks;
+        final int fr = rgb >> 16 & 0xFF;
+        final int fg = rgb >> 8 & 0xFF;
+        final int fb = rgb & 0xFF;
+        int m = glyph * maskSize;
+        for (int row = 0; row < cellHeight; row++) {
+            int p = (y + row) * stride + x;
+            for (int col = 0; col < cellWidth; col++, m++, p++) {
+                final int alpha = mask[m] & 0xFF;
+                if (alpha == 0) continue;
+                if (alpha == 0xFF) {
+                    pixels[p] = rgb;
+                    continue;
+                }
+                final int bg = pixels[p];
+                final int inverse = 0xFF - alpha;
+                final int r = (fr * alpha + (bg >> 16 & 0xFF) * inverse) / 0xFF;
+                final int g = (fg * alpha + (bg >> 8 & 0xFF) * inverse) / 0xFF;
+                final int b = (fb * alpha + (bg & 0xFF) * inverse) / 0xFF;
+                pixels[p] = r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    private int rasterise(int codepoint) {
+        if (glyphCount == MAX_GLYPHS) {
+            // full: forget every glyph and start over
+            Arrays.fill(keys, EMPTY);
+            glyphCount = 0;
+        }
+        final Graphics2D g = scratch.createGraphics();
+        try {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, cellWidth, cellHeight);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(Color.WHITE);
+            // same placement as the cell-by-cell renderer used
+            g.drawString(new String(Character.toChars(codepoint)), 2, cellHeight - 2);
+        } finally {
+            g.dispose();
+        }
+
+        final int glyph = glyphCount++;
+        if ((glyph + 1) * maskSize > masks.length) {
+            masks = Arrays.copyOf(masks, Math.min(masks.length * 2, MAX_GLYPHS * maskSize));
+        }
+        System.arraycopy(scratchPixels, 0, masks, glyph * maskSize, maskSize);
+        insert(codepoint, glyph);
+        return glyph;
+    }
+
+    private int find(int codepoint) {
+        final int mask = keys.length - 1;
+        for (int i = hash(codepoint) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == codepoint) return values[i];
+            if (keys[i] == EMPTY) return -1;
+        }
+    }
+
+    private void insert(int codepoint, int glyph) {
+        if (glyphCount * 2 >= keys.length) grow();
+        final int mask = keys.length - 1;
+        int i = hash(codepoint) & mask;
+        while (keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = codepoint;
+        values[i] = glyph;
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                final int mask = keys.length - 1;
+                int j = hash(oldKeys[i]) & mask;
+                while (keys[j] != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        return key * 0x9E3779B9 >>> 7;
+    }
+}
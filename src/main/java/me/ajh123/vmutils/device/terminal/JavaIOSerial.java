@@ -1,29 +1,261 @@
 package me.ajh123.vmutils.device.terminal;
 
 import me.ajh123.vmutils.api.SerialConsole;
+import me.ajh123.vmutils.utils.ByteRingBuffer;
 
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class JavaIOSerial implements SerialConsole {
-    private final InputStreamReader isr;
+/**
+ * Console on the process's standard input and output.
+ * <p>
+ * Output is collected in a buffer and written to the output channel as raw bytes once the buffer holds
+ * {@code flushBytes} or the oldest unwritten byte is {@code flushDelayMillis} old, whichever comes first.
+ * A guest printing megabytes therefore costs a handful of large writes, while an interactive shell still
+ * sees its echo within a few milliseconds.
+ * <p>
+ * Input is read on a daemon thread of its own, which blocks on stdin and queues what it reads, so
+ * {@link #hasInput()} and {@link #read(ByteBuffer)} never block and never poll the stream.
+ * <p>
+ * Output is written on whichever thread fills the buffer or runs the flush timer, so a failed write (stdout
+ * closed, a broken pipe) cannot be thrown to the guest. Once a write fails, all further output is dropped
+ * and counted, and the failure is raised from the input side instead, where the VM stops the machine on it.
+ */
+public class JavaIOSerial implements SerialConsole, Closeable {
+    private static final int DEFAULT_FLUSH_BYTES = 8 * 1024;
+    private static final long DEFAULT_FLUSH_DELAY_MILLIS = 10;
+    private static final int INPUT_QUEUE_BYTES = 4096;
+    private static final long INPUT_FULL_RECHECK_NANOS = 1_000_000L;
+
+    private final WritableByteChannel out;
+    private final ByteBuffer outBuffer;
+    private final long flushDelayMillis;
+    // a j.u.c. lock so a virtual console thread writing to the channel is not pinned to its carrier
+    private final ReentrantLock outLock = new ReentrantLock();
+    private final ScheduledThreadPoolExecutor flusher;
+    private ScheduledFuture<?> pendingFlush; // guarded by outLock
+    private volatile IOException outputFailure; // written under outLock
+    private long droppedBytes; // guarded by outLock
+
+    private final ByteRingBuffer inQueue = new ByteRingBuffer(INPUT_QUEUE_BYTES); // reader thread -> VM thread
+    private final Thread reader;
+    private volatile Runnable inputListener;
+    private volatile boolean closed = false;
 
     public JavaIOSerial() {
-        isr = new InputStreamReader(System.in);
+        this(new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out).getChannel(),
+                DEFAULT_FLUSH_BYTES, DEFAULT_FLUSH_DELAY_MILLIS);
+    }
+
+    /**
+     * @param in               where input comes from; read on a dedicated thread
+     * @param out              where output goes
+     * @param flushBytes       buffered output size that triggers a write
+     * @param flushDelayMillis longest time output may sit in the buffer
+     */
+    public JavaIOSerial(InputStream in, WritableByteChannel out, int flushBytes, long flushDelayMillis) {
+        Objects.requireNonNull(in, "in");
+        if (flushBytes <= 0) throw new IllegalArgumentException("Flush size must be positive: " + flushBytes);
+        if (flushDelayMillis < 0) throw new IllegalArgumentException("Flush delay must not be negative: " + flushDelayMillis);
+        this.out = Objects.requireNonNull(out, "out");
+        this.outBuffer = ByteBuffer.allocateDirect(flushBytes);
+        this.flushDelayMillis = flushDelayMillis;
+
+        this.flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "JavaIOSerial-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.setRemoveOnCancelPolicy(true);
+
+        this.reader = new Thread(() -> readLoop(in), "JavaIOSerial-stdin");
+        this.reader.setDaemon(true);
+        this.reader.start();
     }
 
+    // ---------- Input ----------
+
     @Override
     public boolean hasInput() throws IOException {
-        return isr.ready();
+        checkOutput();
+        return !inQueue.isEmpty();
     }
 
     @Override
     public byte dequeueInput() throws IOException {
-        return (byte) isr.read();
+        checkOutput();
+        final int value = inQueue.poll();
+        if (value < 0) throw new IOException("No input available");
+        return (byte) value;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOutput();
+        if (dst.hasArray()) {
+            final int count = inQueue.poll(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + count);
+            return count;
+        }
+        int count = 0;
+        int value;
+        while (dst.hasRemaining() && (value = inQueue.poll()) >= 0) {
+            dst.put((byte) value);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void setInputListener(Runnable listener) {
+        this.inputListener = listener;
+    }
+
+    private void checkOutput() throws IOException {
+        final IOException failure = outputFailure;
+        if (failure != null) throw new IOException("Console output failed", failure);
+    }
+
+    private void readLoop(InputStream in) {
+        final byte[] chunk = new byte[INPUT_QUEUE_BYTES];
+        try {
+            int count;
+            while (!closed && (count = in.read(chunk)) >= 0) {
+                int offset = 0;
+                while (offset < count && !closed) {
+                    final int queued = inQueue.offer(chunk, offset, count - offset);
+                    offset += queued;
+                    if (queued > 0) {
+                        final Runnable listener = inputListener;
+                        if (listener != null) listener.run();
+                    } else {
+                        // the guest is not reading; wait for it instead of dropping keystrokes
+                        LockSupport.parkNanos(this, INPUT_FULL_RECHECK_NANOS);
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // stdin closed or broken: no more input, output keeps working
+        }
     }
 
+    // ---------- Output ----------
+
     @Override
     public void putChar(char c) {
-        System.out.print(c);
+        outLock.lock();
+        try {
+            if (outputFailure != null) {
+                droppedBytes++;
+                return;
+            }
+            if (!outBuffer.hasRemaining()) {
+                flushLocked();
+            }
+            outBuffer.put((byte) c);
+            afterWriteLocked();
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        outLock.lock();
+        try {
+            while (length > 0) {
+                if (outputFailure != null) {
+                    droppedBytes += length;
+                    return;
+                }
+                if (!outBuffer.hasRemaining()) {
+                    flushLocked();
+                }
+                final int count = Math.min(length, outBuffer.remaining());
+                outBuffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+            }
+            afterWriteLocked();
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    /** Write out everything buffered so far. */
+    public void flush() {
+        outLock.lock();
+        try {
+            flushLocked();
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    /** Bytes of output thrown away because writing to the output channel failed. */
+    public long getDroppedBytes() {
+        outLock.lock();
+        try {
+            return droppedBytes;
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    /** Flush pending output and stop reading input. The underlying streams are left open. */
+    @Override
+    public void close() {
+        closed = true;
+        flush();
+        flusher.shutdownNow();
+    }
+
+    private void afterWriteLocked() {
+        if (outputFailure != null) {
+            // the write that filled the buffer failed; what was put in after it goes nowhere either
+            droppedBytes += outBuffer.position();
+            outBuffer.clear();
+        } else if (!outBuffer.hasRemaining() || flushDelayMillis == 0) {
+            flushLocked();
+        } else if (pendingFlush == null && outBuffer.position() > 0 && !flusher.isShutdown()) {
+            // first byte since the last flush: make sure it goes out within the delay even if nothing follows
+            pendingFlush = flusher.schedule(this::flush, flushDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushLocked() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        outBuffer.flip();
+        if (outputFailure != null) {
+            droppedBytes += outBuffer.remaining();
+            outBuffer.clear();
+            return;
+        }
+        try {
+            while (outBuffer.hasRemaining()) {
+                out.write(outBuffer);
+            }
+        } catch (IOException e) {
+            // keep the failure for the input side; throwing here would only reach the flush timer or the pump
+            outputFailure = e;
+            droppedBytes += outBuffer.remaining();
+        } finally {
+            outBuffer.clear();
+        }
     }
 }
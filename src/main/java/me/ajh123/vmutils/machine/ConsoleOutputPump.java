@@ -0,0 +1,263 @@
+package me.ajh123.vmutils.machine;
+
+import me.ajh123.vmutils.api.Backpressure;
+import me.ajh123.vmutils.api.SerialConsole;
+import me.ajh123.vmutils.utils.ByteRingBuffer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Carries guest console output from the CPU thread to the console on a thread of its own, so a slow
+ * console (a repaint, a blocked stdout) no longer stalls guest execution.
+ * <p>
+ * The CPU thread is the only producer and the pump thread the only consumer of a chain of
+ * {@link ByteRingBuffer}s. With {@link Backpressure#GROW} a full buffer gets a successor as large as all
+ * buffers still in use, up to a limit, that the producer moves on to while the consumer finishes the old
+ * one first; otherwise there is only ever one buffer. Buffers the consumer has finished no longer count
+ * towards the limit, and once a burst has been delivered the producer moves back to a buffer of the
+ * configured size, so the grown ones can be freed. The pump thread parks while there is nothing to deliver and is unparked by the producer
+ * when there is, so an idle console costs no wake-ups.
+ * <p>
+ * The pump thread is of the {@link ExecutionMode} the machine runs in. Starting the pump in another mode
+ * lets the current thread deliver what is queued and end, then hands over to a thread of the new kind.
+ * Starting a closed pump likewise waits for its last thread to finish delivering, then reopens it.
+ * <p>
+ * If the console throws, the pump closes itself and discards what is queued; the next {@link #write}
+ * reports the failure instead of waiting for a pump thread that is gone.
+ */
+final class ConsoleOutputPump implements Runnable {
+    private static final int DRAIN_CHUNK = 4096;
+    private static final int MAX_GROWN_CAPACITY = 64 * 1024 * 1024; // GROW falls back to BLOCK beyond this
+    private static final long BLOCK_RECHECK_NANOS = 1_000_000L;
+    private static final String THREAD_NAME = "R5VirtualMachine-console-";
+
+    private final SerialConsole console;
+    private final Backpressure backpressure;
+    private final LongConsumer dropped; // told how many bytes of output were dropped
+    private final String machine; // names the machine in JFR events
+
+    private Segment readSegment; // consumer only
+    private Segment writeSegment; // producer only
+    private final int baseCapacity; // of the first buffer, and of the one the producer returns to after a burst
+    private final AtomicInteger liveCapacity; // of the buffers not yet finished by the consumer
+
+    private volatile Thread consumer; // the current pump thread; one no longer current ends once drained
+    private ExecutionMode mode; // of the current pump thread, guarded by startLock
+    private final ReentrantLock startLock = new ReentrantLock(); // start() may wait for a pump thread to end
+    private volatile boolean consumerWaiting = false;
+    private volatile Thread blockedProducer;
+    private volatile boolean closed = false;
+    private volatile RuntimeException failure; // thrown by the console; set before closed
+
+    ConsoleOutputPump(SerialConsole console, int capacity, Backpressure backpressure, LongConsumer dropped, String machine) {
+        this.console = console;
+        this.backpressure = backpressure;
+        this.dropped = dropped;
+        this.machine = machine;
+        this.writeSegment = this.readSegment = new Segment(new ByteRingBuffer(capacity));
+        this.baseCapacity = writeSegment.ring.capacity();
+        this.liveCapacity = new AtomicInteger(baseCapacity);
+    }
+
+    /**
+     * Start a pump thread of the given kind, unless one is already running. A running thread of another kind
+     * is replaced once it has delivered everything queued, so output keeps its order. A closed pump is
+     * reopened the same way, once the thread that was running when it closed has ended.
+     */
+    void start(ExecutionMode mode) {
+        startLock.lock();
+        try {
+            final Thread current = consumer;
+            if (closed) {
+                if (current != null) joinUninterruptibly(current);
+                consumer = null;
+                failure = null;
+                closed = false;
+            } else if (current != null) {
+                if (this.mode == mode) return;
+                consumer = null;
+                LockSupport.unpark(current);
+                joinUninterruptibly(current);
+            }
+            final Thread thread = mode.threadFactory(THREAD_NAME).newThread(this);
+            this.mode = mode;
+            consumer = thread;
+            thread.start();
+        } finally {
+            startLock.unlock();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Deliver what is still queued, then end the pump thread. Output written afterwards is dropped until the
+     * pump is started again.
+     */
+    void close() {
+        closed = true;
+        final Thread thread = consumer;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    /** @return the capacity of the buffers currently in use */
+    int capacity() {
+        return liveCapacity.get();
+    }
+
+    // ---------- Producer side (CPU thread) ----------
+
+    /**
+     * Queue output for the console, applying the backpressure policy if the buffer is full.
+     *
+     * @throws IOException if the console failed; the pump is closed then and this output is dropped
+     */
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        JfrEvents.ConsoleBackpressure wait = null; // only created once the buffer is full
+        if (writeSegment.ring.capacity() > baseCapacity && writeSegment.ring.isEmpty()) {
+            // a burst has been delivered; move back to a buffer of the configured size
+            append(baseCapacity);
+        }
+        while (length > 0) {
+            if (failure != null) throw failed(length, wait);
+            final int count = writeSegment.ring.offer(bytes, offset, length);
+            if (count > 0) {
+                offset += count;
+                length -= count;
+                if (consumerWaiting) LockSupport.unpark(consumer);
+                if (length == 0) break;
+            }
+
+            if (failure != null) throw failed(length, wait);
+            if (closed || backpressure == Backpressure.DROP) {
+                dropped.accept(length);
+                break;
+            }
+            final int live = liveCapacity.get();
+            if (backpressure == Backpressure.GROW && live < MAX_GROWN_CAPACITY) {
+                // doubles the buffered capacity, rounded down to a power of two so the limit holds
+                append(Integer.highestOneBit(Math.min(live, MAX_GROWN_CAPACITY - live)));
+                continue;
+            }
+            if (wait == null) {
+                wait = new JfrEvents.ConsoleBackpressure();
+                wait.machine = machine;
+                wait.bytes = length;
+                wait.begin();
+            }
+            awaitSpace();
+        }
+        if (wait != null) wait.commit();
+    }
+
+    private void append(int capacity) {
+        final Segment next = new Segment(new ByteRingBuffer(capacity));
+        liveCapacity.addAndGet(next.ring.capacity());
+        writeSegment.next = next; // publishes everything written to the old segment
+        writeSegment = next;
+    }
+
+    private IOException failed(int length, JfrEvents.ConsoleBackpressure wait) {
+        dropped.accept(length);
+        if (wait != null) wait.commit();
+        return new IOException("Console output failed", failure);
+    }
+
+    private void awaitSpace() {
+        blockedProducer = Thread.currentThread();
+        if (writeSegment.ring.isFull() && !closed) {
+            // bounded so a console that has stopped consuming cannot wedge the CPU thread for good
+            LockSupport.parkNanos(this, BLOCK_RECHECK_NANOS);
+        }
+        blockedProducer = null;
+    }
+
+    // ---------- Consumer side (pump thread) ----------
+
+    @Override
+    public void run() {
+        final Thread self = Thread.currentThread();
+        final byte[] chunk = new byte[DRAIN_CHUNK];
+        while (true) {
+            final int count = drain(chunk);
+            if (count > 0) {
+                final Thread producer = blockedProducer;
+                if (producer != null) LockSupport.unpark(producer);
+                try {
+                    console.write(chunk, 0, count);
+                } catch (RuntimeException e) {
+                    fail(e, count);
+                    break;
+                }
+                continue;
+            }
+
+            if (closed || consumer != self) {
+                if (isEmpty()) break;
+                continue;
+            }
+            consumerWaiting = true;
+            if (isEmpty() && !closed && consumer == self) {
+                LockSupport.park(this);
+            }
+            consumerWaiting = false;
+        }
+        // unblock a producer that filled the buffer again while we were delivering the last chunk
+        final Thread producer = blockedProducer;
+        if (producer != null) LockSupport.unpark(producer);
+    }
+
+    // The console is unusable: drop the chunk that failed and everything queued, and stop delivering
+    private void fail(RuntimeException e, int count) {
+        failure = e;
+        closed = true;
+        long discarded = count;
+        final byte[] chunk = new byte[DRAIN_CHUNK];
+        int drained;
+        while ((drained = drain(chunk)) > 0) {
+            discarded += drained;
+        }
+        dropped.accept(discarded);
+    }
+
+    private int drain(byte[] chunk) {
+        while (true) {
+            final int count = readSegment.ring.poll(chunk, 0, chunk.length);
+            if (count > 0) return count;
+            final Segment next = readSegment.next;
+            if (next == null) return 0;
+            // the producer has moved on; anything it wrote here before that is visible now
+            if (!readSegment.ring.isEmpty()) continue;
+            liveCapacity.addAndGet(-readSegment.ring.capacity());
+            readSegment = next;
+        }
+    }
+
+    private boolean isEmpty() {
+        return readSegment.ring.isEmpty() && readSegment.next == null;
+    }
+
+    private static final class Segment {
+        final ByteRingBuffer ring;
+        volatile Segment next;
+
+        Segment(ByteRingBuffer ring) {
+            this.ring = ring;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package me.ajh123.vmutils.machine;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * What kind of thread a VM run loop and its console I/O run on.
+ * <p>
+ * The run loop spends nearly all of its time sleeping between 1 ms slices, which makes it a good fit for
+ * virtual threads: thousands of mostly idle machines then share a handful of carrier threads instead of
+ * each holding a platform thread and its stack. Virtual threads need Java 21; the build targets 17, so they
+ * are looked up reflectively and {@link #isSupported()} reports whether the running JVM has them.
+ */
+public enum ExecutionMode {
+    /** One platform (OS) thread per loop. Works everywhere. */
+    PLATFORM,
+    /** One virtual thread per loop. Requires Java 21 or newer. */
+    VIRTUAL;
+
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    public boolean isSupported() {
+        return this == PLATFORM || OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a thread factory for this mode.
+     *
+     * @param name prefix for thread names; threads are numbered from 0
+     * @throws UnsupportedOperationException if this mode is not supported by the running JVM
+     */
+    public ThreadFactory threadFactory(final String name) {
+        if (this == PLATFORM) {
+            return new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, name + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        try {
+            // Thread.ofVirtual().name(name, 0).factory()
+            final Object builder = OF_VIRTUAL.invoke(null);
+            final Class<?> builderType = OF_VIRTUAL.getReturnType();
+            final Object named = builderType.getMethod("name", String.class, long.class).invoke(builder, name, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(named);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Failed to create virtual thread factory", e);
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            final Method method = Thread.class.getMethod("ofVirtual");
+            method.invoke(null); // throws on JVMs where virtual threads are a disabled preview feature
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
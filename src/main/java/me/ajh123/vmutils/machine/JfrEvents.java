@@ -0,0 +1,97 @@
+package me.ajh123.vmutils.machine;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events emitted by the machines in this package, so a recording shows VM stalls
+ * next to the GC pauses, safepoints and thread activity that caused them.
+ * <p>
+ * Each event is timed and has a default duration threshold; events shorter than it are dropped by JFR
+ * before anything is written, and with JFR off the events are never committed at all. Recording settings
+ * can change the thresholds, e.g. {@code me.ajh123.vmutils.SliceOverrun#threshold=0 ms}.
+ */
+final class JfrEvents {
+    private static final String CATEGORY = "VM Utils";
+
+    private JfrEvents() {
+    }
+
+    @Name("me.ajh123.vmutils.Lifecycle")
+    @Label("VM Lifecycle")
+    @Category({CATEGORY, "Lifecycle"})
+    @Description("Initialising, starting, stopping, resetting or restarting a virtual machine")
+    @Threshold("0 ms")
+    static final class Lifecycle extends Event {
+        @Label("Machine")
+        String machine;
+
+        @Label("Operation")
+        String operation;
+
+        static Lifecycle begin(String machine, String operation) {
+            final Lifecycle event = new Lifecycle();
+            event.machine = machine;
+            event.operation = operation;
+            event.begin();
+            return event;
+        }
+    }
+
+    @Name("me.ajh123.vmutils.SliceOverrun")
+    @Label("VM Slice Overrun")
+    @Category({CATEGORY, "Execution"})
+    @Description("A run of CPU cycles that took longer in real time than the guest time it represents")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class SliceOverrun extends Event {
+        @Label("Machine")
+        String machine;
+
+        @Label("Cycles")
+        long cycles;
+
+        @Label("Budget")
+        @Timespan(Timespan.NANOSECONDS)
+        long budget;
+    }
+
+    @Name("me.ajh123.vmutils.UartBurst")
+    @Label("UART Output Burst")
+    @Category({CATEGORY, "Console"})
+    @Description("Consecutive slices in which the guest wrote to its console")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static final class UartBurst extends Event {
+        @Label("Machine")
+        String machine;
+
+        @Label("Bytes")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+
+        @Label("Slices")
+        long slices;
+    }
+
+    @Name("me.ajh123.vmutils.ConsoleBackpressure")
+    @Label("Console Backpressure Wait")
+    @Category({CATEGORY, "Console"})
+    @Description("The guest waiting for the console to catch up with its output")
+    @Threshold("1 ms")
+    static final class ConsoleBackpressure extends Event {
+        @Label("Machine")
+        String machine;
+
+        @Label("Bytes Waiting")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+    }
+}
@@ -0,0 +1,189 @@
+package me.ajh123.vmutils.machine;
+
+import li.cil.ceres.BinarySerialization;
+import li.cil.sedna.api.device.BlockDevice;
+import li.cil.sedna.api.device.PhysicalMemory;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import li.cil.sedna.device.rtc.GoldfishRTC;
+import li.cil.sedna.device.serial.UART16550A;
+import li.cil.sedna.device.virtio.VirtIOBlockDevice;
+import li.cil.sedna.riscv.R5Board;
+import me.ajh123.vmutils.device.block.CopyOnWriteBlockDevice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Snapshot file format for {@link R5VirtualMachine}: board and CPU state, device state, RAM and the
+ * private blocks of a copy-on-write disk, in one deflate-compressed stream. Mostly-empty guest RAM
+ * compresses to a fraction of its size and inflates quickly enough to restore in milliseconds.
+ * <p>
+ * Board, CPU and device state are serialised with the same Ceres serializers Sedna uses itself. Images
+ * are not stored: a snapshot can only be restored into a machine built from the same firmware, kernel
+ * and root filesystem.
+ */
+final class R5Snapshot {
+    static final int MAGIC = 0x564D534E; // "VMSN"
+    static final int VERSION = 1;
+    private static final int COPY_CHUNK = 1024 * 1024;
+
+    private final R5Board board;
+    private final PhysicalMemory memory;
+    private final UART16550A uart;
+    private final GoldfishRTC rtc;
+    private final VirtIOBlockDevice hdd;
+    private final BlockDevice disk;
+
+    R5Snapshot(R5Board board, PhysicalMemory memory, UART16550A uart, GoldfishRTC rtc,
+               VirtIOBlockDevice hdd, BlockDevice disk) {
+        this.board = board;
+        this.memory = memory;
+        this.uart = uart;
+        this.rtc = rtc;
+        this.hdd = hdd;
+        this.disk = disk;
+    }
+
+    void write(Path file) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(file), deflater, COPY_CHUNK)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeDeviceState(out);
+            writeMemory(out);
+            writeDisk(out);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    void read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file)), COPY_CHUNK))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a VM snapshot: " + file);
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            readDeviceState(in);
+            readMemory(in);
+            readDisk(in);
+        }
+    }
+
+    /** Board, CPU and device state. */
+    void writeDeviceState(DataOutputStream out) throws IOException {
+        writeSection(out, serialize(board, R5Board.class));
+        writeSection(out, serialize(uart, UART16550A.class));
+        writeSection(out, serialize(rtc, GoldfishRTC.class));
+        writeSection(out, serialize(hdd, VirtIOBlockDevice.class));
+    }
+
+    void readDeviceState(DataInputStream in) throws IOException {
+        deserialize(readSection(in), R5Board.class, board);
+        deserialize(readSection(in), UART16550A.class, uart);
+        deserialize(readSection(in), GoldfishRTC.class, rtc);
+        deserialize(readSection(in), VirtIOBlockDevice.class, hdd);
+    }
+
+    /** All of guest RAM, copied in chunks to bound the temporary buffer. */
+    void writeMemory(DataOutputStream out) throws IOException {
+        final int length = memory.getLength();
+        out.writeInt(length);
+        final ByteBuffer chunk = ByteBuffer.allocate(Math.min(COPY_CHUNK, length));
+        try {
+            for (int offset = 0; offset < length; offset += chunk.capacity()) {
+                chunk.clear().limit(Math.min(chunk.capacity(), length - offset));
+                memory.load(offset, chunk);
+                out.write(chunk.array(), 0, chunk.limit());
+            }
+        } catch (MemoryAccessException mae) {
+            throw new IOException("Failed to read physical memory", mae);
+        }
+    }
+
+    void readMemory(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length != memory.getLength()) {
+            throw new IOException(String.format("Snapshot memory size %d does not match machine memory size %d",
+                    length, memory.getLength()));
+        }
+        final byte[] chunk = new byte[Math.min(COPY_CHUNK, length)];
+        try {
+            for (int offset = 0; offset < length; offset += chunk.length) {
+                final int count = Math.min(chunk.length, length - offset);
+                in.readFully(chunk, 0, count);
+                memory.store(offset, ByteBuffer.wrap(chunk, 0, count));
+            }
+        } catch (MemoryAccessException mae) {
+            throw new IOException("Failed to write to physical memory", mae);
+        }
+    }
+
+    /** Disk contents; only a copy-on-write overlay holds state that is not in a backing file. */
+    void writeDisk(DataOutputStream out) throws IOException {
+        if (disk instanceof CopyOnWriteBlockDevice cow) {
+            out.writeBoolean(true);
+            cow.writeOverlay(out);
+        } else {
+            out.writeBoolean(false);
+        }
+    }
+
+    void readDisk(DataInputStream in) throws IOException {
+        final boolean hasOverlay = in.readBoolean();
+        if (hasOverlay) {
+            if (!(disk instanceof CopyOnWriteBlockDevice cow)) {
+                throw new IOException("Snapshot has disk changes but the machine disk is not copy-on-write");
+            }
+            cow.readOverlay(in);
+        }
+    }
+
+    // ---------- Helpers ----------
+
+    private static void writeSection(DataOutputStream out, ByteBuffer data) throws IOException {
+        out.writeInt(data.remaining());
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            final byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private static ByteBuffer readSection(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static <T> ByteBuffer serialize(T value, Class<T> type) throws IOException {
+        try {
+            return BinarySerialization.serialize(value, type);
+        } catch (Exception e) {
+            throw new IOException("Failed to serialize " + type.getSimpleName(), e);
+        }
+    }
+
+    private static <T> void deserialize(ByteBuffer data, Class<T> type, T into) throws IOException {
+        try {
+            BinarySerialization.deserialize(data, type, into);
+        } catch (Exception e) {
+            throw new IOException("Failed to restore " + type.getSimpleName(), e);
+        }
+    }
+}
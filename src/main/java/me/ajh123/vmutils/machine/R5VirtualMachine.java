@@ -1,58 +1,138 @@
 package me.ajh123.vmutils.machine;
 
-import li.cil.sedna.api.device.PhysicalMemory;
-import li.cil.sedna.device.block.ByteBufferBlockDevice;
-import li.cil.sedna.device.memory.Memory;
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.device.BlockDevice;
+import li.cil.sedna.api.memory.MemoryAccessException;
 import li.cil.sedna.device.rtc.GoldfishRTC;
 import li.cil.sedna.device.rtc.SystemTimeRealTimeCounter;
 import li.cil.sedna.device.serial.UART16550A;
 import li.cil.sedna.device.virtio.VirtIOBlockDevice;
 import li.cil.sedna.riscv.R5Board;
+import li.cil.sedna.riscv.R5CPU;
+import li.cil.sedna.riscv.R5CPUDebug;
+import me.ajh123.vmutils.api.Backpressure;
+import me.ajh123.vmutils.api.ImageSource;
+import me.ajh123.vmutils.api.PacingMode;
 import me.ajh123.vmutils.api.SerialConsole;
 import me.ajh123.vmutils.api.VirtualMachine;
 import me.ajh123.vmutils.device.DeviceRegistry;
 import me.ajh123.vmutils.device.Devices;
+import me.ajh123.vmutils.device.block.CountingBlockDevice;
+import me.ajh123.vmutils.device.memory.DirtyTrackingMemory;
+import me.ajh123.vmutils.profiling.GuestProfiler;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class R5VirtualMachine extends VirtualMachine {
     private static final int DEFAULT_MEMORY_BYTES = 32 * 1024 * 1024;
     private static final int KERNEL_LOAD_ADDRESS = 0x200000;
     private static final int CPU_STEP_CYCLES = 1_000; // cycles per small step
     private static final long NANOS_PER_MS = 1_000_000L;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long EFFECTIVE_FREQUENCY_WINDOW_NANOS = NANOS_PER_SECOND;
+    private static final long MAX_IDLE_WAIT_NANOS = 100 * NANOS_PER_MS; // longest wait for an idle guest's timer
+    private static final long CLINT_MTIMECMP_ADDRESS = 0x02004000L; // hart 0 timer compare register of the board's CLINT
+    private static final int IDLE_COST_RATIO = 50; // idle if stepping took under 1/50th of the slice's real time
+    private static final int DEFAULT_CONSOLE_BUFFER_BYTES = 64 * 1024;
 
     private final R5Board board;
-    private final PhysicalMemory memory;
+    private final DirtyTrackingMemory memory;
     private final DeviceRegistry.DeviceType<UART16550A> uart;
     private final GoldfishRTC rtc;
     private final SerialConsole viewer;
 
-    private final DeviceRegistry.DeviceType<VirtIOBlockDevice> hdd; // created from cached rootfs bytes
+    private final DeviceRegistry.DeviceType<VirtIOBlockDevice> hdd; // over the shared rootfs image, read-only by default
+
+    // devices created for this machine; the device types above are shared between machines
+    private UART16550A uartDevice;
+    private VirtIOBlockDevice hddDevice;
+    private BlockDevice disk;
+    private Path rootDiskImage; // optional file-backed disk replacing the rootfs image
+    private boolean rootDiskOverlay = false; // guest writes to the root disk go to a private overlay
+
+    // loaded on initialize(); read-only views of buffers shared through the image cache
+    private ByteBuffer firmwareImage;
+    private ByteBuffer kernelImage;
 
     // lifecycle state
     private volatile boolean running = false;
     private volatile boolean initialized = false;
+    private boolean restored = false; // CPU state came from a snapshot; start() must not re-initialize the board
+
+    // state captured by markBaseline(): RAM is kept by the memory itself, the board, device and disk state
+    // here in serialised form. Without one, resets zero the RAM the guest touched and reload the images.
+    private byte[] baselineState;
+
+    // effective frequency: cycles run in the current measurement window, and the rate of the last full window
+    private long windowStartNanos = System.nanoTime();
+    private long windowCycles = 0;
+    private volatile double effectiveMHz = 0;
+
+    // guest console output is handed to a pump thread instead of being written to the viewer while stepping
+    private int consoleBufferCapacity = DEFAULT_CONSOLE_BUFFER_BYTES;
+    private Backpressure consoleBackpressure = Backpressure.BLOCK;
+    private ConsoleOutputPump consoleOutput;
+    private final byte[] uartScratch = new byte[256];
+    private final ByteBuffer pendingInput = ByteBuffer.allocate(64).flip(); // console input not yet in the UART
+
+    // idle detection; idle is written by the stepping thread, inputPending by console input producers
+    private volatile boolean idle = false;
+    private volatile boolean inputPending = false;
+    // the thread of the active run loop, claimed by run() or by launch() for the thread it starts; a loop
+    // whose thread is no longer the one recorded here ends after its current slice
+    private final AtomicReference<Thread> runThread = new AtomicReference<>();
+    private ExecutionMode launchMode; // of the thread launch() started, guarded by launchLock
+    private final ReentrantLock launchLock = new ReentrantLock(); // launch() may wait for a run loop to end
+
+    // JFR: names this machine in events, and the console output burst in progress (stepping thread only)
+    private final String eventName = "R5VirtualMachine@" + Integer.toHexString(System.identityHashCode(this));
+    private JfrEvents.UartBurst uartBurst;
+
+    // optional guest pc sampler, read by the stepping thread once per slice
+    private volatile GuestProfiler profiler;
+
+    // held by the run loop while stepping, so snapshots see the machine between two steps
+    // (a j.u.c. lock rather than a monitor so a virtual thread holding it is never pinned to its carrier)
+    private final ReentrantLock stepLock = new ReentrantLock();
 
     public R5VirtualMachine(final InputStream firmware,
                             final InputStream kernel,
                             final InputStream rootfs,
                             final SerialConsole viewer
+    ) {
+        this(ImageSource.of(Objects.requireNonNull(firmware, "firmware")),
+                ImageSource.of(Objects.requireNonNull(kernel, "kernel")),
+                ImageSource.of(Objects.requireNonNull(rootfs, "rootfs")),
+                viewer);
+    }
+
+    public R5VirtualMachine(final ImageSource firmware,
+                            final ImageSource kernel,
+                            final ImageSource rootfs,
+                            final SerialConsole viewer
     ) {
         super(firmware, kernel, rootfs);
-        Objects.requireNonNull(firmware, "firmware");
-        Objects.requireNonNull(kernel, "kernel");
-        Objects.requireNonNull(rootfs, "rootfs");
         this.viewer = Objects.requireNonNull(viewer, "viewer");
 
 
         this.board = new R5Board();
-        this.memory = Memory.create(DEFAULT_MEMORY_BYTES);
+        this.memory = new DirtyTrackingMemory(DEFAULT_MEMORY_BYTES);
         this.uart = Devices.UART_16550AD;
         this.rtc = new GoldfishRTC(SystemTimeRealTimeCounter.get());
         this.hdd = Devices.VIRTIO_BLOCK_DEVICE;
@@ -61,19 +141,38 @@ public final class R5VirtualMachine extends VirtualMachine {
     @Override
     public void initialize() throws IOException {
         if (initialized) return;
+        final JfrEvents.Lifecycle event = JfrEvents.Lifecycle.begin(eventName, "initialize");
+        try {
+            doInitialize();
+        } finally {
+            event.commit();
+        }
+    }
+
+    private void doInitialize() throws IOException {
+
+        // Images are only read now, and only the ones this machine actually uses.
+        firmwareImage = firmware.load();
+        kernelImage = kernel.load();
 
         // Map devices (device-local memory offset 0 corresponds to RAM start)
         board.addDevice(0x80000000L, memory);
 
         // Wire interrupts and devices
-        uart.attach(new HashMap<>(), board, memory);
+        uartDevice = uart.attach(new HashMap<>(), board, memory);
 
         rtc.getInterrupt().set(0xB, board.getInterruptController());
         board.addDevice(rtc);
 
         Map<String, Object> hddOptions = new HashMap<>();
-        hddOptions.put("fsBytes", this.rootfsBytes);
-        hdd.attach(hddOptions, board, memory);
+        if (rootDiskImage != null) {
+            hddOptions.put("fsFile", rootDiskImage);
+        } else {
+            hddOptions.put("baseImage", rootfs.load());
+        }
+        hddOptions.put("overlay", rootDiskOverlay);
+        disk = Devices.createBlockDevice(hddOptions);
+        hddDevice = hdd.attach(Map.of("blockDevice", new CountingBlockDevice(disk, metrics)), board, memory);
 
 
         board.setBootArguments("root=/dev/vda ro");
@@ -81,82 +180,534 @@ public final class R5VirtualMachine extends VirtualMachine {
         board.reset();
 
         // load firmware and kernel into RAM (device-local offsets)
-        loadProgramBytes(memory, firmwareBytes, 0);
-        loadProgramBytes(memory, kernelBytes, KERNEL_LOAD_ADDRESS);
+        loadProgramBytes(memory, firmwareImage, 0);
+        loadProgramBytes(memory, kernelImage, KERNEL_LOAD_ADDRESS);
 
         initialized = true;
     }
 
+    /**
+     * Use a disk image file as the root filesystem instead of the rootfs image. The file is memory-mapped
+     * read-only and never written; see {@link #setRootDiskOverlay}. Must be called before initialize().
+     */
+    public void setRootDisk(final Path image) {
+        if (initialized) {
+            throw new IllegalStateException("Root disk must be set before initialize()");
+        }
+        this.rootDiskImage = Objects.requireNonNull(image, "image");
+    }
+
+    /**
+     * Let the guest write to its root disk. Writes are kept in a private copy-on-write overlay, in memory
+     * and in snapshots, and the image itself is never changed. Off by default: the root disk is read-only,
+     * as the shared rootfs image always was. Must be called before initialize().
+     */
+    public void setRootDiskOverlay(final boolean overlay) {
+        if (initialized) {
+            throw new IllegalStateException("Root disk must be set before initialize()");
+        }
+        this.rootDiskOverlay = overlay;
+    }
+
+    /**
+     * Configure the buffer between guest console output and the viewer. Output is delivered to the viewer
+     * on a thread of its own; when the viewer falls behind by more than the buffer, the backpressure policy
+     * decides whether the guest waits ({@link Backpressure#BLOCK}, the default), output is lost
+     * ({@link Backpressure#DROP}) or the buffer grows ({@link Backpressure#GROW}). Must be called before
+     * the first start().
+     */
+    public void setConsoleBuffer(final int capacity, final Backpressure backpressure) {
+        if (consoleOutput != null) {
+            throw new IllegalStateException("Console buffer must be configured before start()");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.consoleBufferCapacity = capacity;
+        this.consoleBackpressure = Objects.requireNonNull(backpressure, "backpressure");
+    }
+
+    /**
+     * Attach a sampling profiler of guest code, or detach it with null. While attached, the stepping thread
+     * reports the guest pc and privilege mode to it every {@link GuestProfiler#getIntervalCycles()} cycles,
+     * between CPU steps. May be called at any time; takes effect from the next slice.
+     */
+    public void setProfiler(final GuestProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public GuestProfiler getProfiler() {
+        return profiler;
+    }
+
+    /** @return how many bytes of console output were discarded because the viewer could not keep up */
+    public long getDroppedConsoleBytes() {
+        return metrics.getConsoleBytesDropped();
+    }
+
     @Override
     public void start() throws IOException {
+        start(ExecutionMode.PLATFORM);
+    }
+
+    private void start(final ExecutionMode mode) throws IOException {
         if (!initialized) {
             initialize();
         }
+        // the console pump runs on the same kind of thread as the machine; launch() may move a running VM
+        // to another mode, so the pump is switched over between two steps
+        stepLock.lock();
+        try {
+            if (consoleOutput == null) {
+                consoleOutput = new ConsoleOutputPump(viewer, consoleBufferCapacity, consoleBackpressure,
+                        metrics::addConsoleBytesDropped, eventName);
+            }
+            consoleOutput.start(mode);
+        } finally {
+            stepLock.unlock();
+        }
         if (running) return;
 
-        board.initialize();
+        final JfrEvents.Lifecycle event = JfrEvents.Lifecycle.begin(eventName, "start");
+        if (!restored) {
+            board.initialize();
+        }
+        restored = false;
         board.setRunning(true);
         running = true;
+        event.commit();
     }
 
     @Override
     public void stop() {
+        final JfrEvents.Lifecycle event = JfrEvents.Lifecycle.begin(eventName, "stop");
         running = false;
         board.setRunning(false);
+        final Thread thread = runThread.get();
+        if (thread != null) LockSupport.unpark(thread); // end an idle wait now rather than at its deadline
+        event.commit();
     }
 
     @Override
     public void reset() throws IOException {
         // stop execution if running
         stop();
+        if (!initialized) {
+            // nothing loaded yet; initialize() maps devices and loads the images
+            initialize();
+        }
 
-        // reload images
-        loadProgramBytes(memory, firmwareBytes, 0);
-        loadProgramBytes(memory, kernelBytes, KERNEL_LOAD_ADDRESS);
+        final JfrEvents.Lifecycle event = JfrEvents.Lifecycle.begin(eventName, "reset");
+        stepLock.lock();
+        try {
+            reloadImages();
+
+            // re-initialize CPU/board state
+            board.initialize();
+            board.setRunning(false);
+            restored = false;
+            metrics.recordReset();
+        } finally {
+            stepLock.unlock();
+            event.commit();
+        }
+    }
 
-        // re-initialize CPU/board state
-        board.initialize();
-        board.setRunning(false);
+    /**
+     * Capture the current machine state as a baseline for {@link #resetToBaseline()}. From here on only the
+     * RAM pages the guest writes are tracked; board, device and disk state are kept in serialised form.
+     */
+    public void markBaseline() throws IOException {
+        if (!initialized) {
+            throw new IllegalStateException("VM is not initialized");
+        }
+        stepLock.lock();
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                final R5Snapshot snapshot = snapshot();
+                snapshot.writeDeviceState(out);
+                snapshot.writeDisk(out);
+            }
+            memory.markBaseline();
+            baselineState = bytes.toByteArray();
+        } finally {
+            stepLock.unlock();
+        }
+    }
+
+    /**
+     * Bring the machine back to the state captured by {@link #markBaseline()}, restoring only the RAM pages
+     * written since. Stops execution; a following start() resumes from the baseline. Without a marked
+     * baseline this is a plain {@link #reset()}.
+     *
+     * @return the number of RAM pages restored
+     */
+    public int resetToBaseline() throws IOException {
+        if (baselineState == null) {
+            final int dirtyPages = initialized ? memory.getDirtyPageCount() : 0;
+            reset();
+            return dirtyPages;
+        }
+        stop();
+        final JfrEvents.Lifecycle event = JfrEvents.Lifecycle.begin(eventName, "resetToBaseline");
+        stepLock.lock();
+        try {
+            final int restoredPages = memory.resetToBaseline();
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(baselineState))) {
+                final R5Snapshot snapshot = snapshot();
+                snapshot.readDeviceState(in);
+                snapshot.readDisk(in);
+            }
+            restored = true;
+            metrics.recordReset();
+            return restoredPages;
+        } finally {
+            stepLock.unlock();
+            event.commit();
+        }
+    }
+
+    /**
+     * Put firmware and kernel back into RAM. Until a baseline is marked, every page the guest touched is
+     * zeroed first, making the reset a real one; afterwards the images are loaded over whatever RAM holds.
+     */
+    private void reloadImages() throws IOException {
+        if (!memory.hasBaseline()) {
+            memory.zeroDirtyPages();
+        }
+        loadProgramBytes(memory, firmwareImage, 0);
+        loadProgramBytes(memory, kernelImage, KERNEL_LOAD_ADDRESS);
     }
 
     @Override
     public void shutdown() {
         stop();
+        if (consoleOutput != null) {
+            // delivers what the guest already wrote, then ends the pump thread; start() reopens it
+            consoleOutput.close();
+        }
         // if hdd or other devices expose close/release, do so here (not assumed in this generic wrapper).
     }
 
+    @Override
+    public void saveSnapshot(final Path file) throws IOException {
+        if (!initialized) {
+            throw new IllegalStateException("VM is not initialized");
+        }
+        stepLock.lock();
+        try {
+            snapshot().write(file);
+        } finally {
+            stepLock.unlock();
+        }
+    }
+
+    @Override
+    public void restoreSnapshot(final Path file) throws IOException {
+        stop();
+        if (!initialized) {
+            initialize();
+        }
+        final JfrEvents.Lifecycle event = JfrEvents.Lifecycle.begin(eventName, "restoreSnapshot");
+        stepLock.lock();
+        try {
+            snapshot().read(file);
+            restored = true;
+        } finally {
+            stepLock.unlock();
+            event.commit();
+        }
+    }
+
+    private R5Snapshot snapshot() {
+        return new R5Snapshot(board, memory, uartDevice, rtc, hddDevice, disk);
+    }
+
+    @Override
+    public boolean runCycles(final int cycles) throws IOException {
+        if (!isRunning()) return false;
+        runSlice(cycles);
+        return isRunning();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running && board.isRunning();
+    }
+
+    @Override
+    public int getFrequency() {
+        return board.getCpu().getFrequency();
+    }
+
+    @Override
+    public boolean isIdle() {
+        return idle;
+    }
+
+    @Override
+    public double getEffectiveMHz() {
+        return effectiveMHz;
+    }
+
+    /**
+     * Start the VM and run it on a new thread of the given kind. If a run loop is already active on a thread
+     * of another kind, that loop ends after its current slice and the machine carries on, without a reset,
+     * on the new thread; the old loop's future then completes normally.
+     *
+     * @return a future completing when the run loop returns, or exceptionally if it fails
+     * @throws IllegalStateException         if a run loop is already active on a thread of this kind, or this
+     *                                       is called from the run loop itself
+     * @throws UnsupportedOperationException if the execution mode is not supported by the running JVM
+     */
+    public CompletableFuture<Void> launch(final ExecutionMode mode) throws IOException {
+        final ThreadFactory factory = mode.threadFactory("R5VirtualMachine-");
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+        final Thread thread = factory.newThread(() -> {
+            try {
+                run();
+                completion.complete(null);
+            } catch (Throwable t) {
+                completion.completeExceptionally(t);
+            }
+        });
+
+        launchLock.lock();
+        try {
+            final Thread current = runThread.get();
+            if (current != null) {
+                if (current == Thread.currentThread()) {
+                    throw new IllegalStateException("A VM cannot be relaunched from its own run loop");
+                }
+                if (mode == launchMode) throw new IllegalStateException("VM is already running in " + mode + " mode");
+                // hand over: the old loop sees it is no longer current, ends after its slice, and is waited for
+                if (!runThread.compareAndSet(current, thread)) {
+                    throw new IllegalStateException("VM run loop changed while relaunching");
+                }
+                LockSupport.unpark(current);
+                joinUninterruptibly(current);
+            } else if (!runThread.compareAndSet(null, thread)) {
+                throw new IllegalStateException("VM is already running");
+            }
+            try {
+                start(mode);
+            } catch (IOException | RuntimeException e) {
+                runThread.compareAndSet(thread, null);
+                throw e;
+            }
+            launchMode = mode;
+            thread.start();
+        } finally {
+            launchLock.unlock();
+        }
+        return completion;
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
     // ---------- Main run loop ----------
 
     /**
      * Run the VM; this method returns when the VM stops or the thread is interrupted.
      * Caller responsibility: call start() before run() to ensure board initialized and running flag set.
+     *
+     * @throws IllegalStateException if another run loop is already active for this VM
      */
     public void run() throws Exception {
         final int cpuFrequency = board.getCpu().getFrequency(); // cycles/sec
-        final int cyclesPerMs = Math.max(1, cpuFrequency / 1000);
         long nextTick = System.nanoTime();
+        long sliceNanos = NANOS_PER_MS; // longer after an idle wait
+
+        final Thread self = Thread.currentThread();
+        if (!runThread.compareAndSet(null, self) && runThread.get() != self) {
+            throw new IllegalStateException("VM is already being run by " + runThread.get().getName());
+        }
+        viewer.setInputListener(this::wakeUp);
+        try {
+            while (board.isRunning() && running && runThread.get() == self && !self.isInterrupted()) {
+                // Run sliceNanos worth of CPU cycles; 1 ms unless the guest was waiting for its timer
+                runSlice((int) Math.max(1, sliceNanos * cpuFrequency / NANOS_PER_SECOND));
+
+                final PacingMode pacing = getPacingMode();
+                if (pacing == PacingMode.UNTHROTTLED) {
+                    // No pacing at all; keep nextTick current so switching back to a paced mode starts on time
+                    nextTick = System.nanoTime();
+                    sliceNanos = NANOS_PER_MS;
+                    continue;
+                }
+
+                nextTick += sliceNanos;
+                sliceNanos = NANOS_PER_MS;
+                if (idle) {
+                    // An idle guest does nothing until its timer fires or input arrives, so wait for either
+                    // first, then step through the time that passed in one slice. The guest thus never runs
+                    // ahead of real time and reaches its timer deadline when it is due.
+                    final long timerDue = nextTick + nanosUntilTimerInterrupt();
+                    if (timerDue - nextTick > NANOS_PER_MS) {
+                        waitUntil(timerDue);
+                        sliceNanos = Math.min(Math.max(System.nanoTime() - nextTick, NANOS_PER_MS), MAX_IDLE_WAIT_NANOS);
+                        continue;
+                    }
+                }
+
+                final long now = System.nanoTime();
+                long nanosToSleep = nextTick - now;
+                metrics.recordBehindSchedule(Math.max(0, -nanosToSleep));
+                if (nanosToSleep > 0) {
+                    if (!waitUntil(nextTick)) {
+                        // Woken by console input: run the next slice right away
+                        nextTick = System.nanoTime();
+                    } else {
+                        metrics.recordSleepOvershoot(System.nanoTime() - nextTick);
+                    }
+                } else if (pacing == PacingMode.CATCH_UP) {
+                    // Behind schedule: keep running slices back to back until caught up, but never owe more than
+                    // the catch-up budget
+                    final long budget = getCatchUpBudgetNanos();
+                    if (-nanosToSleep > budget) {
+                        metrics.recordScheduleReset(-nanosToSleep - budget);
+                        nextTick = now - budget;
+                    }
+                } else {
+                    // We're behind schedule; advance nextTick now to avoid accumulating large negative sleep
+                    metrics.recordScheduleReset(-nanosToSleep);
+                    nextTick = now;
+                }
+            }
+        } finally {
+            if (runThread.compareAndSet(self, null)) {
+                viewer.setInputListener(null); // a loop that was handed over leaves the listener to its successor
+            }
+            stepLock.lock();
+            try {
+                endUartBurst();
+            } finally {
+                stepLock.unlock();
+            }
+        }
+    }
 
-        Optional<UART16550A> uart_port_opt = uart.getDevice();
+    /**
+     * Park the run loop until the deadline, console input or interruption.
+     *
+     * @return false if woken early by console input
+     */
+    private boolean waitUntil(final long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (inputPending) {
+                inputPending = false;
+                return false;
+            }
+            final Thread self = Thread.currentThread();
+            if (self.isInterrupted() || !running || runThread.get() != self) {
+                return true;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
 
-        while (board.isRunning() && running && !Thread.currentThread().isInterrupted()) {
-            // Run ~1 ms worth of CPU cycles, stepping in CPU_STEP_CYCLES increments
-            int cyclesRemaining = cyclesPerMs;
+    private void wakeUp() {
+        inputPending = true;
+        final Thread thread = runThread.get();
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Real time until the guest's next timer interrupt, from hart 0's compare register in the CLINT and the
+     * CPU's time counter, at most {@link #MAX_IDLE_WAIT_NANOS}. A disarmed timer (compare all ones) counts as
+     * far away; an unreadable one as due now.
+     */
+    private long nanosUntilTimerInterrupt() {
+        final R5CPU cpu = board.getCpu();
+        final long compare;
+        final long time;
+        stepLock.lock();
+        try {
+            compare = board.getMemoryMap().load(CLINT_MTIMECMP_ADDRESS, Sizes.SIZE_64_LOG2);
+            time = cpu.getTime();
+        } catch (MemoryAccessException e) {
+            return 0;
+        } finally {
+            stepLock.unlock();
+        }
+        if (Long.compareUnsigned(compare, time) <= 0) return 0;
+        final long ticks = compare - time; // unsigned
+        final long maxTicks = MAX_IDLE_WAIT_NANOS * cpu.getFrequency() / NANOS_PER_SECOND;
+        if (ticks < 0 || ticks >= maxTicks) return MAX_IDLE_WAIT_NANOS;
+        return ticks * NANOS_PER_SECOND / cpu.getFrequency();
+    }
+
+    /**
+     * Run the given number of cycles, stepping in CPU_STEP_CYCLES increments and servicing the UART
+     * after each step, then handle a guest-requested restart.
+     */
+    private void runSlice(final int cycles) throws IOException {
+        stepLock.lock();
+        try {
+            Optional<UART16550A> uart_port_opt = Optional.ofNullable(uartDevice);
+            final JfrEvents.SliceOverrun overrun = new JfrEvents.SliceOverrun();
+            overrun.begin();
+            final long sliceStart = System.nanoTime();
+            boolean consoleActivity = false;
+            long bytesOut = 0;
+            long bytesIn = 0;
+            final GuestProfiler profiler = this.profiler;
+            final R5CPUDebug cpuDebug = profiler != null ? board.getCpu().getDebugInterface() : null;
+
+            int cyclesRemaining = cycles;
             while (cyclesRemaining > 0 && !Thread.currentThread().isInterrupted() && running) {
                 board.step(CPU_STEP_CYCLES);
                 cyclesRemaining -= CPU_STEP_CYCLES;
+                windowCycles += CPU_STEP_CYCLES;
+                if (profiler != null && profiler.advance(CPU_STEP_CYCLES)) {
+                    profiler.sample(cpuDebug.getProgramCounter(), cpuDebug.getPriv());
+                }
 
                 if (uart_port_opt.isPresent()) {
                     UART16550A uart_port = uart_port_opt.get();
-                    // Drain UART output
+                    // Drain UART output into the console pump; the viewer is written on the pump's thread
+                    int count = 0;
                     int value;
                     while ((value = uart_port.read()) != -1) {
-                        viewer.putChar((char) (value & 0xFF));
+                        uartScratch[count++] = (byte) value;
+                        if (count == uartScratch.length) {
+                            writeConsole(count);
+                            count = 0;
+                        }
+                        consoleActivity = true;
+                        bytesOut++;
+                    }
+                    if (count > 0) {
+                        writeConsole(count);
                     }
 
                     // Feed input into UART
                     try {
-                        while (viewer.hasInput() && uart_port.canPutByte()) {
-                            uart_port.putByte(viewer.dequeueInput());
+                        if (!pendingInput.hasRemaining() && uart_port.canPutByte()) {
+                            pendingInput.clear();
+                            viewer.read(pendingInput);
+                            pendingInput.flip();
+                        }
+                        while (pendingInput.hasRemaining() && uart_port.canPutByte()) {
+                            uart_port.putByte(pendingInput.get());
+                            consoleActivity = true;
+                            bytesIn++;
                         }
                     } catch (IOException ioe) {
                         // If terminal input fails, stop the VM with a clear error
@@ -166,32 +717,87 @@ public final class R5VirtualMachine extends VirtualMachine {
                 }
             }
 
+            // A CPU waiting for an interrupt skips through its cycles, so a slice that cost only a sliver of
+            // the real time it represents, and moved no console data, means the guest is idle.
+            metrics.addCycles(cycles - cyclesRemaining);
+            if (bytesOut > 0) metrics.addUartBytesOut(bytesOut);
+            if (bytesIn > 0) metrics.addUartBytesIn(bytesIn);
+            recordUartBurst(bytesOut);
+
+            overrun.end();
+            final long sliceNanos = System.nanoTime() - sliceStart;
+            final long budgetNanos = cycles * NANOS_PER_SECOND / Math.max(1, getFrequency());
+            idle = !consoleActivity && sliceNanos * IDLE_COST_RATIO < budgetNanos;
+            if (sliceNanos > budgetNanos && overrun.shouldCommit()) {
+                overrun.machine = eventName;
+                overrun.cycles = cycles - cyclesRemaining;
+                overrun.budget = budgetNanos;
+                overrun.commit();
+            }
+
+            updateEffectiveFrequency();
+
             // If guest requested a restart, reload images and reinitialize CPU
             if (board.isRestarting() && !Thread.currentThread().isInterrupted()) {
+                idle = false;
+                metrics.recordRestart();
+                final JfrEvents.Lifecycle event = JfrEvents.Lifecycle.begin(eventName, "restart");
                 try {
-                    loadProgramBytes(memory, firmwareBytes, 0);
-                    loadProgramBytes(memory, kernelBytes, KERNEL_LOAD_ADDRESS);
+                    reloadImages();
                     board.initialize();
                 } catch (IOException ioe) {
                     stop();
                     throw ioe;
+                } finally {
+                    event.commit();
                 }
             }
+        } finally {
+            stepLock.unlock();
+        }
+    }
 
-            // Use precise sleep to approximate 1ms pacing
-            nextTick += NANOS_PER_MS;
-            long nanosToSleep = nextTick - System.nanoTime();
-            if (nanosToSleep > 0) {
-                try {
-                    Thread.sleep(nanosToSleep / NANOS_PER_MS, (int) (nanosToSleep % NANOS_PER_MS));
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            } else {
-                // We're behind schedule; advance nextTick now to avoid accumulating large negative sleep
-                nextTick = System.nanoTime();
-            }
+    private void writeConsole(final int count) throws IOException {
+        try {
+            consoleOutput.write(uartScratch, 0, count);
+        } catch (IOException ioe) {
+            // The console is gone; stop the VM rather than keep producing output nobody receives
+            stop();
+            throw ioe;
+        }
+    }
+
+        // A burst is a run of slices that all wrote console output; it ends with the first quiet slice
+    private void recordUartBurst(final long bytesOut) {
+        if (bytesOut == 0) {
+            endUartBurst();
+            return;
+        }
+        if (uartBurst == null) {
+            final JfrEvents.UartBurst burst = new JfrEvents.UartBurst();
+            if (!burst.isEnabled()) return;
+            burst.machine = eventName;
+            burst.begin();
+            uartBurst = burst;
+        }
+        uartBurst.bytes += bytesOut;
+        uartBurst.slices++;
+    }
+
+    private void endUartBurst() {
+        if (uartBurst != null) {
+            uartBurst.commit();
+            uartBurst = null;
+        }
+    }
+
+    private void updateEffectiveFrequency() {
+        final long now = System.nanoTime();
+        final long elapsed = now - windowStartNanos;
+        if (elapsed >= EFFECTIVE_FREQUENCY_WINDOW_NANOS) {
+            effectiveMHz = windowCycles * 1_000.0 / elapsed; // cycles/ns * 1000 = MHz
+            windowStartNanos = now;
+            windowCycles = 0;
         }
     }
 }
@@ -0,0 +1,265 @@
+package me.ajh123.vmutils.machine;
+
+import me.ajh123.vmutils.api.PacingMode;
+import me.ajh123.vmutils.api.VirtualMachine;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs many virtual machines on a fixed pool of worker threads instead of one blocked thread per machine.
+ * <p>
+ * Every hosted machine gets the same quantum: the number of cycles its CPU executes in one quantum of real
+ * time. A quantum is a task on a work-stealing pool; when it is done the machine's next quantum is either
+ * queued straight away (if the machine is behind) or handed to a timer for its next deadline. A machine
+ * therefore never occupies a thread while it waits, and never runs on two threads at once.
+ * <p>
+ * A machine that falls more than the lag limit behind (after a GC pause, or because the host is
+ * overcommitted) has its schedule reset rather than trying to catch up on all the lost time. Machines in
+ * {@link PacingMode#CATCH_UP} use their own catch-up budget as the limit instead, and machines in
+ * {@link PacingMode#UNTHROTTLED} have their next quantum queued as soon as the previous one is done.
+ * <p>
+ * A machine that reports itself {@linkplain VirtualMachine#isIdle() idle} is batched: each run covers up to
+ * {@value #MAX_IDLE_QUANTA} quanta at once and is scheduled that much later, so idle guests cost a fraction
+ * of the wake-ups. The batch drops back to a single quantum as soon as the guest does anything.
+ */
+public final class VmHost implements AutoCloseable {
+    private static final long NANOS_PER_MS = 1_000_000L;
+    private static final long DEFAULT_MAX_LAG_NANOS = 100 * NANOS_PER_MS;
+    private static final int MAX_IDLE_QUANTA = 8; // most quanta an idle machine runs in one go
+
+    private final ForkJoinPool workers;
+    private final ScheduledExecutorService timer;
+    private final long quantumNanos;
+    private final long maxLagNanos;
+    private final Map<VirtualMachine, Guest> guests = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /** A host with one worker per available core and 1 ms quanta. */
+    public VmHost() {
+        this(Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    /**
+     * @param workerCount   number of worker threads machines are multiplexed onto
+     * @param quantumMillis real time per quantum; longer quanta mean fewer wake-ups but coarser interleaving
+     */
+    public VmHost(int workerCount, int quantumMillis) {
+        this(workerCount, quantumMillis, DEFAULT_MAX_LAG_NANOS);
+    }
+
+    /**
+     * @param workerCount   number of worker threads machines are multiplexed onto
+     * @param quantumMillis real time per quantum; longer quanta mean fewer wake-ups but coarser interleaving
+     * @param maxLagNanos   how far a machine may fall behind before its schedule is reset
+     */
+    public VmHost(int workerCount, int quantumMillis, long maxLagNanos) {
+        if (workerCount <= 0) throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+        if (quantumMillis <= 0) throw new IllegalArgumentException("Quantum must be positive: " + quantumMillis);
+        this.quantumNanos = quantumMillis * NANOS_PER_MS;
+        this.maxLagNanos = maxLagNanos;
+        // FIFO local queues: a re-queued machine goes behind the others instead of running again immediately
+        this.workers = new ForkJoinPool(workerCount, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "VmHost-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.timer = scheduler;
+    }
+
+    /**
+     * Start running a machine on this host. The machine must already be started.
+     *
+     * @return a future completing when the machine stops, or exceptionally if it fails
+     */
+    public CompletableFuture<Void> submit(VirtualMachine vm) {
+        Objects.requireNonNull(vm, "vm");
+        if (closed) throw new IllegalStateException("Host is closed");
+        if (!vm.isRunning()) throw new IllegalStateException("VM must be started before it is hosted");
+
+        final Guest guest = new Guest(vm);
+        if (guests.putIfAbsent(vm, guest) != null) {
+            throw new IllegalStateException("VM is already hosted");
+        }
+        workers.execute(guest);
+        return guest.completion;
+    }
+
+    /**
+     * Stop scheduling a machine. The machine itself is left as it is and may be resubmitted later. If the
+     * machine is in the middle of a quantum, this waits for the quantum to end, so the machine is never
+     * run by two schedulers at once.
+     */
+    public void remove(VirtualMachine vm) {
+        final Guest guest = guests.get(vm);
+        if (guest != null) {
+            guest.quantumLock.lock();
+            try {
+                guest.finish(null);
+            } finally {
+                guest.quantumLock.unlock();
+            }
+        }
+    }
+
+    /** @return scheduling statistics for a hosted machine, or null if it is not hosted here */
+    public GuestStats getStats(VirtualMachine vm) {
+        final Guest guest = guests.get(vm);
+        return guest != null ? guest.stats() : null;
+    }
+
+    public List<VirtualMachine> getGuests() {
+        return List.copyOf(guests.keySet());
+    }
+
+    public int getWorkerCount() {
+        return workers.getParallelism();
+    }
+
+    /** Stop scheduling all machines and shut the worker pool down. */
+    @Override
+    public void close() {
+        closed = true;
+        for (Guest guest : guests.values()) {
+            guest.finish(null);
+        }
+        timer.shutdownNow();
+        workers.shutdown();
+    }
+
+    /**
+     * @param lagNanos       how late the most recent quantum started relative to its deadline
+     * @param peakLagNanos   the largest such lag seen
+     * @param quanta         number of quanta run
+     * @param cycles         number of CPU cycles run, as recorded in the machine's metrics
+     * @param scheduleResets how often the machine fell too far behind and had its schedule reset
+     */
+    public record GuestStats(long lagNanos, long peakLagNanos, long quanta, long cycles, long scheduleResets) {
+    }
+
+    private final class Guest implements Runnable {
+        private final VirtualMachine vm;
+        private final int cyclesPerQuantum;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        // held while a quantum runs; remove() takes it so a removed machine is never mid-quantum
+        // (a j.u.c. lock rather than a monitor so the worker is never pinned if it is a virtual thread)
+        private final ReentrantLock quantumLock = new ReentrantLock();
+        private long deadline = System.nanoTime();
+        private int batch = 1; // quanta per run; grows while the machine is idle
+
+        // written by whichever worker runs the current quantum, read by stats()
+        private volatile long lagNanos;
+        private volatile long peakLagNanos;
+        private volatile long quanta;
+        private volatile long cycles;
+        private volatile long scheduleResets;
+
+        Guest(VirtualMachine vm) {
+            this.vm = vm;
+            this.cyclesPerQuantum = (int) Math.max(1, vm.getFrequency() * quantumNanos / 1_000_000_000L);
+        }
+
+        @Override
+        public void run() {
+            quantumLock.lock();
+            try {
+                runQuantum();
+            } finally {
+                quantumLock.unlock();
+            }
+        }
+
+        private void runQuantum() {
+            if (completion.isDone()) return;
+
+            final PacingMode pacing = vm.getPacingMode();
+            final long lagLimit = pacing == PacingMode.CATCH_UP ? vm.getCatchUpBudgetNanos() : maxLagNanos;
+
+            final long start = System.nanoTime();
+            final long lag = start - deadline;
+            lagNanos = Math.max(0, lag);
+            if (lag > peakLagNanos) peakLagNanos = lag;
+            vm.getMetrics().recordBehindSchedule(lagNanos);
+            if (lag > lagLimit) {
+                // Too far behind to catch up; drop the lost time
+                deadline = start;
+                scheduleResets++;
+                vm.getMetrics().recordScheduleReset(lag);
+            }
+
+            final long cyclesBefore = vm.getMetrics().getCyclesExecuted();
+            final boolean stillRunning;
+            try {
+                stillRunning = vm.runCycles(cyclesPerQuantum * batch);
+            } catch (Throwable t) {
+                finish(t);
+                return;
+            }
+            quanta += batch;
+            // what the machine actually ran; it stops short when the guest halts or restarts
+            cycles += vm.getMetrics().getCyclesExecuted() - cyclesBefore;
+            if (!stillRunning || closed || completion.isDone()) {
+                finish(null);
+                return;
+            }
+
+            if (pacing == PacingMode.UNTHROTTLED) {
+                deadline = System.nanoTime();
+                batch = 1;
+            } else {
+                deadline += quantumNanos * batch;
+                batch = vm.isIdle() ? Math.min(batch * 2, MAX_IDLE_QUANTA) : 1;
+            }
+            final long delay = deadline - System.nanoTime();
+            if (delay <= 0) {
+                // Behind schedule: queue on this worker, idle workers steal from here
+                if (ForkJoinTask.inForkJoinPool()) {
+                    ForkJoinTask.adapt(this).fork();
+                } else {
+                    execute();
+                }
+            } else {
+                try {
+                    timer.schedule(this::execute, delay, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    finish(null); // the host was closed meanwhile
+                }
+            }
+        }
+
+        // Queue the next quantum unless the guest is finished; the pool refuses work once the host closes
+        private void execute() {
+            if (closed || completion.isDone()) return;
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                finish(null);
+            }
+        }
+
+        void finish(Throwable failure) {
+            guests.remove(vm, this);
+            if (failure != null) {
+                completion.completeExceptionally(failure);
+            } else {
+                completion.complete(null);
+            }
+        }
+
+        GuestStats stats() {
+            return new GuestStats(lagNanos, peakLagNanos, quanta, cycles, scheduleResets);
+        }
+    }
+}
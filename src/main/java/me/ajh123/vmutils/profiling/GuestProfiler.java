@@ -0,0 +1,229 @@
+package me.ajh123.vmutils.profiling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sampling profiler of guest code: every so many emulated cycles the machine reports the guest program
+ * counter and privilege mode, and the profiler counts how often each (pc, mode) pair was seen. The
+ * histogram is allocated up front and recording a sample allocates nothing, so a profiler can stay
+ * attached to a production machine; samples of new pcs that no longer fit are only counted as dropped.
+ * <p>
+ * Profiles are symbolised when written, against a {@link SymbolTable} of the kernel or firmware. Only the
+ * pc is sampled, not the guest call stack, so "collapsed stacks" are mode and function: enough for
+ * flame graph tools to group time by privilege level and function.
+ */
+public final class GuestProfiler {
+    public static final int DEFAULT_INTERVAL_CYCLES = 100_000;
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final String[] MODE_NAMES = {"user", "supervisor", "hypervisor", "machine"};
+
+    private final int intervalCycles;
+    private final int mask;
+
+    // open-addressed histogram keyed by pc and mode; a slot is free while its count is 0
+    private final long[] pcs;
+    private final byte[] modes;
+    private final long[] counts;
+    private int used = 0;
+    private long samples = 0;
+    private long dropped = 0;
+
+    private long cyclesToNextSample; // stepping thread only
+
+    // samples are recorded by the stepping thread and read by whoever writes a profile
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public GuestProfiler() {
+        this(DEFAULT_INTERVAL_CYCLES, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param intervalCycles emulated cycles between samples; machines sample between CPU steps, so the
+     *                       interval is effectively rounded up to a whole number of steps
+     * @param capacity       distinct (pc, mode) pairs the histogram can hold; rounded up to a power of two
+     */
+    public GuestProfiler(int intervalCycles, int capacity) {
+        if (intervalCycles <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + intervalCycles);
+        }
+        if (capacity <= 0 || capacity > 1 << 28) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        this.intervalCycles = intervalCycles;
+        this.cyclesToNextSample = intervalCycles;
+        // keep the table at most half full so probes stay short
+        final int slots = Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1;
+        this.mask = slots - 1;
+        this.pcs = new long[slots];
+        this.modes = new byte[slots];
+        this.counts = new long[slots];
+    }
+
+    public int getIntervalCycles() {
+        return intervalCycles;
+    }
+
+    // ---------- Recording ----------
+
+    /**
+     * Advance the sampling clock by the given number of emulated cycles; called by the stepping thread
+     * after each CPU step.
+     *
+     * @return whether a sample is due
+     */
+    public boolean advance(int cycles) {
+        cyclesToNextSample -= cycles;
+        if (cyclesToNextSample > 0) return false;
+        cyclesToNextSample += intervalCycles;
+        if (cyclesToNextSample <= 0) cyclesToNextSample = intervalCycles; // a step longer than the interval
+        return true;
+    }
+
+    /** Count one sample of the guest at {@code pc} in privilege mode {@code mode} (0 user to 3 machine). */
+    public void sample(long pc, int mode) {
+        lock.lock();
+        try {
+            samples++;
+            int slot = hash(pc, mode) & mask;
+            while (counts[slot] != 0) {
+                if (pcs[slot] == pc && modes[slot] == mode) {
+                    counts[slot]++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (used * 2 >= counts.length) {
+                dropped++;
+                return;
+            }
+            pcs[slot] = pc;
+            modes[slot] = (byte) mode;
+            counts[slot] = 1;
+            used++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int hash(long pc, int mode) {
+        final long h = (pc ^ ((long) mode << 62)) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    /** Discard all samples. */
+    public void reset() {
+        lock.lock();
+        try {
+            Arrays.fill(counts, 0);
+            used = 0;
+            samples = 0;
+            dropped = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return samples taken, including dropped ones */
+    public long getSamples() {
+        lock.lock();
+        try {
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return samples not counted because the histogram was full */
+    public long getDroppedSamples() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------- Reports ----------
+
+    /** Samples attributed to one function in one privilege mode. */
+    public record Entry(String mode, String function, long samples) {
+    }
+
+    /**
+     * Aggregate the samples by mode and function, most sampled first. PCs no symbol covers are reported
+     * as {@code [unknown]}.
+     */
+    public List<Entry> flatProfile(SymbolTable symbols) {
+        // copy the histogram out so the stepping thread is not held up while symbolising
+        final long[] samplePcs;
+        final byte[] sampleModes;
+        final long[] sampleCounts;
+        lock.lock();
+        try {
+            samplePcs = new long[used];
+            sampleModes = new byte[used];
+            sampleCounts = new long[used];
+            int n = 0;
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (counts[slot] == 0) continue;
+                samplePcs[n] = pcs[slot];
+                sampleModes[n] = modes[slot];
+                sampleCounts[n] = counts[slot];
+                n++;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final Map<String, Map<String, long[]>> byMode = new HashMap<>();
+        for (int i = 0; i < samplePcs.length; i++) {
+            final String function = symbols.lookup(samplePcs[i]);
+            byMode.computeIfAbsent(modeName(sampleModes[i]), m -> new HashMap<>())
+                    .computeIfAbsent(function != null ? function : "[unknown]", f -> new long[1])[0] += sampleCounts[i];
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        byMode.forEach((mode, functions) ->
+                functions.forEach((function, count) -> entries.add(new Entry(mode, function, count[0]))));
+        entries.sort((a, b) -> a.samples() != b.samples()
+                ? Long.compare(b.samples(), a.samples())
+                : a.function().compareTo(b.function()));
+        return entries;
+    }
+
+    /** Write the flat profile as a table: share of samples, sample count, mode and function. */
+    public void writeFlatProfile(Appendable out, SymbolTable symbols) throws IOException {
+        final List<Entry> entries = flatProfile(symbols);
+        long total = 0;
+        for (Entry entry : entries) total += entry.samples();
+
+        out.append(String.format("# %d samples every %d cycles, %d dropped%n", total, intervalCycles, getDroppedSamples()));
+        out.append(String.format("%7s %10s  %-10s %s%n", "%", "samples", "mode", "function"));
+        for (Entry entry : entries) {
+            out.append(String.format("%6.2f%% %10d  %-10s %s%n",
+                    100.0 * entry.samples() / Math.max(1, total), entry.samples(), entry.mode(), entry.function()));
+        }
+    }
+
+    /**
+     * Write the profile in the collapsed stack format read by flame graph tools ({@code flamegraph.pl},
+     * speedscope, ...): one {@code mode;function count} line per function.
+     */
+    public void writeCollapsedStacks(Appendable out, SymbolTable symbols) throws IOException {
+        for (Entry entry : flatProfile(symbols)) {
+            out.append(entry.mode()).append(';').append(entry.function().replace(' ', '_'))
+                    .append(' ').append(Long.toString(entry.samples())).append('\n');
+        }
+    }
+
+    private static String modeName(int mode) {
+        return mode >= 0 && mode < MODE_NAMES.length ? MODE_NAMES[mode] : "mode" + mode;
+    }
+}
@@ -0,0 +1,210 @@
+package me.ajh123.vmutils.profiling;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Code symbols of a guest image, for turning sampled program counters into function names. Load one from a
+ * kernel {@code System.map} or from the symbol table of an ELF file such as {@code vmlinux} or the
+ * firmware's ELF.
+ * <p>
+ * An address resolves to the nearest symbol at or below it, up to the symbol's size when the source
+ * records one, otherwise up to the next symbol.
+ */
+public final class SymbolTable {
+    private static final SymbolTable EMPTY = new SymbolTable(new long[0], new long[0], new String[0]);
+
+    // ELF constants
+    private static final int ELFCLASS32 = 1;
+    private static final int ELFCLASS64 = 2;
+    private static final int ELFDATA2LSB = 1;
+    private static final int SHT_SYMTAB = 2;
+    private static final int SHT_DYNSYM = 11;
+    private static final int STT_NOTYPE = 0;
+    private static final int STT_FUNC = 2;
+    private static final int SHN_UNDEF = 0;
+    private static final int SHN_LORESERVE = 0xff00;
+
+    private final long[] addresses; // sorted
+    private final long[] ends; // exclusive; 0 when only the next symbol bounds it
+    private final String[] names;
+
+    private record Symbol(long address, long size, String name) {
+    }
+
+    private SymbolTable(long[] addresses, long[] ends, String[] names) {
+        this.addresses = addresses;
+        this.ends = ends;
+        this.names = names;
+    }
+
+    /** @return a table resolving nothing */
+    public static SymbolTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Load a kernel {@code System.map} ({@code nm} output: address, type, name per line). Only text symbols
+     * (types {@code T}, {@code t}, {@code W} and {@code w}) are kept.
+     */
+    public static SymbolTable fromSystemMap(Path file) throws IOException {
+        final List<Symbol> symbols = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.trim().split("\\s+");
+                if (fields.length < 3 || fields[1].length() != 1) continue;
+                switch (fields[1].charAt(0)) {
+                    case 'T', 't', 'W', 'w' -> {
+                        try {
+                            symbols.add(new Symbol(Long.parseUnsignedLong(fields[0], 16), 0, fields[2]));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Malformed System.map line: " + line, e);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        return of(symbols);
+    }
+
+    /**
+     * Load the function symbols of a little-endian ELF file, 32 or 64 bit, from its {@code .symtab}, or from
+     * {@code .dynsym} if it has been stripped.
+     */
+    public static SymbolTable fromElf(Path file) throws IOException {
+        final MappedByteBuffer elf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            elf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        elf.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            return of(readElfSymbols(elf));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated ELF file: " + file, e);
+        }
+    }
+
+    private static List<Symbol> readElfSymbols(ByteBuffer elf) throws IOException {
+        if (elf.limit() < 0x34 || elf.getInt(0) != 0x464c457f) { // "\177ELF"
+            throw new IOException("Not an ELF file");
+        }
+        final int elfClass = elf.get(4);
+        if (elfClass != ELFCLASS32 && elfClass != ELFCLASS64) {
+            throw new IOException("Unsupported ELF class: " + elfClass);
+        }
+        if (elf.get(5) != ELFDATA2LSB) {
+            throw new IOException("Only little-endian ELF files are supported");
+        }
+        final boolean is64 = elfClass == ELFCLASS64;
+
+        final long sectionTable = is64 ? elf.getLong(0x28) : Integer.toUnsignedLong(elf.getInt(0x20));
+        final int sectionSize = Short.toUnsignedInt(elf.getShort(is64 ? 0x3a : 0x2e));
+        final int sectionCount = Short.toUnsignedInt(elf.getShort(is64 ? 0x3c : 0x30));
+
+        // prefer the full symbol table; stripped files only have the dynamic one
+        int symtab = -1;
+        for (int i = 0; i < sectionCount; i++) {
+            final int type = elf.getInt(Math.toIntExact(sectionTable + (long) i * sectionSize + 4));
+            if (type == SHT_SYMTAB || (type == SHT_DYNSYM && symtab < 0)) symtab = i;
+        }
+        final List<Symbol> symbols = new ArrayList<>();
+        if (symtab < 0) return symbols;
+
+        final int header = Math.toIntExact(sectionTable + (long) symtab * sectionSize);
+        final long offset = is64 ? elf.getLong(header + 0x18) : Integer.toUnsignedLong(elf.getInt(header + 0x10));
+        final long size = is64 ? elf.getLong(header + 0x20) : Integer.toUnsignedLong(elf.getInt(header + 0x14));
+        final int link = elf.getInt(header + (is64 ? 0x28 : 0x18));
+        final long entrySize = is64 ? elf.getLong(header + 0x38) : Integer.toUnsignedLong(elf.getInt(header + 0x24));
+        if (entrySize <= 0 || link <= 0 || link >= sectionCount) {
+            throw new IOException("Malformed ELF symbol table");
+        }
+        final int strings = Math.toIntExact(is64
+                ? elf.getLong(Math.toIntExact(sectionTable + (long) link * sectionSize + 0x18))
+                : Integer.toUnsignedLong(elf.getInt(Math.toIntExact(sectionTable + (long) link * sectionSize + 0x10))));
+
+        for (long entry = offset; entry + entrySize <= offset + size; entry += entrySize) {
+            final int at = Math.toIntExact(entry);
+            final int name = elf.getInt(at);
+            final int info = Byte.toUnsignedInt(elf.get(at + (is64 ? 4 : 12)));
+            final int sectionIndex = Short.toUnsignedInt(elf.getShort(at + (is64 ? 6 : 14)));
+            final long value = is64 ? elf.getLong(at + 8) : Integer.toUnsignedLong(elf.getInt(at + 4));
+            final long symbolSize = is64 ? elf.getLong(at + 16) : Integer.toUnsignedLong(elf.getInt(at + 8));
+
+            final int type = info & 0xf;
+            if (type != STT_FUNC && type != STT_NOTYPE) continue;
+            if (sectionIndex == SHN_UNDEF || sectionIndex >= SHN_LORESERVE || name == 0) continue;
+            final String symbolName = readString(elf, strings + name);
+            // skip assembler-local labels and RISC-V mapping symbols
+            if (type == STT_NOTYPE && (symbolName.startsWith(".L") || symbolName.startsWith("$"))) continue;
+            symbols.add(new Symbol(value, type == STT_FUNC ? symbolSize : 0, symbolName));
+        }
+        return symbols;
+    }
+
+    private static String readString(ByteBuffer elf, int offset) {
+        int end = offset;
+        while (elf.get(end) != 0) end++;
+        final byte[] bytes = new byte[end - offset];
+        elf.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static SymbolTable of(List<Symbol> symbols) {
+        // sized symbols first so they win over bare labels at the same address
+        symbols.sort(Comparator.comparing(Symbol::address, Long::compareUnsigned).thenComparing(s -> s.size() == 0));
+        final int count = symbols.size();
+        final long[] addresses = new long[count];
+        final long[] ends = new long[count];
+        final String[] names = new String[count];
+        int n = 0;
+        for (Symbol symbol : symbols) {
+            if (n > 0 && addresses[n - 1] == symbol.address()) continue;
+            addresses[n] = symbol.address();
+            ends[n] = symbol.size() > 0 ? symbol.address() + symbol.size() : 0;
+            names[n] = symbol.name();
+            n++;
+        }
+        return new SymbolTable(Arrays.copyOf(addresses, n), Arrays.copyOf(ends, n), Arrays.copyOf(names, n));
+    }
+
+    /** @return how many symbols the table holds */
+    public int size() {
+        return names.length;
+    }
+
+    /** @return the name of the symbol containing {@code address}, or null if none does */
+    public String lookup(long address) {
+        // addresses are unsigned; kernel symbols live at the top of the address space
+        int low = 0;
+        int high = addresses.length - 1;
+        int found = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(addresses[mid], address) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found < 0) return null;
+        final long end = ends[found];
+        if (end != 0 && Long.compareUnsigned(address, end) >= 0) return null;
+        return names[found];
+    }
+}
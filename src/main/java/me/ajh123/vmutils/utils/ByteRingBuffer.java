@@ -0,0 +1,101 @@
+package me.ajh123.vmutils.utils;
+
+/**
+ * Bounded lock-free byte queue for exactly one producer thread and one consumer thread.
+ * <p>
+ * Each side only ever writes its own index, so no locks or compare-and-set are needed: the producer
+ * publishes bytes by advancing the tail and the consumer frees space by advancing the head. Calling
+ * the offer methods from more than one thread, or the poll methods from more than one thread, is not
+ * supported.
+ */
+public final class ByteRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+    private volatile long head = 0; // next byte to read, only written by the consumer
+    private volatile long tail = 0; // next byte to write, only written by the producer
+
+    /**
+     * @param capacity maximum number of queued bytes; rounded up to a power of two
+     */
+    public ByteRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /** @return the number of queued bytes; exact on either side's own thread, a snapshot elsewhere */
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public boolean isEmpty() {
+        return tail == head;
+    }
+
+    public boolean isFull() {
+        return size() == buffer.length;
+    }
+
+    // ---------- Producer side ----------
+
+    /** @return false if the buffer is full */
+    public boolean offer(byte value) {
+        final long t = tail;
+        if (t - head == buffer.length) return false;
+        buffer[(int) t & mask] = value;
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * Queue as many bytes from {@code src} as fit.
+     *
+     * @return the number of bytes queued, possibly 0
+     */
+    public int offer(byte[] src, int offset, int length) {
+        final long t = tail;
+        final int count = Math.min(length, buffer.length - (int) (t - head));
+        if (count <= 0) return 0;
+        final int start = (int) t & mask;
+        final int first = Math.min(count, buffer.length - start);
+        System.arraycopy(src, offset, buffer, start, first);
+        System.arraycopy(src, offset + first, buffer, 0, count - first);
+        tail = t + count;
+        return count;
+    }
+
+    // ---------- Consumer side ----------
+
+    /** @return the next byte as 0-255, or -1 if the buffer is empty */
+    public int poll() {
+        final long h = head;
+        if (h == tail) return -1;
+        final int value = buffer[(int) h & mask] & 0xFF;
+        head = h + 1;
+        return value;
+    }
+
+    /**
+     * Dequeue up to {@code length} bytes into {@code dst}.
+     *
+     * @return the number of bytes dequeued, possibly 0
+     */
+    public int poll(byte[] dst, int offset, int length) {
+        final long h = head;
+        final int count = Math.min(length, (int) (tail - h));
+        if (count <= 0) return 0;
+        final int start = (int) h & mask;
+        final int first = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, count - first);
+        head = h + count;
+        return count;
+    }
+}
@@ -3,11 +3,77 @@ package me.ajh123.vmutils.utils;
 import me.ajh123.vmutils.api.Terminal;
 
 import java.awt.*;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
+/**
+ * Colour lookups for the terminal. The 16 ANSI colours, the 256-colour palette and the bright variants
+ * of all of them are built once into fixed tables; truecolour values and bold variants of other colours
+ * are interned in small caches, so colour-heavy output looks colours up instead of allocating them per
+ * sequence or per cell, and truecolour churn never pushes out a palette colour's bright variant.
+ */
 public class ColorUtils {
+    // Base ANSI colors using Java Color constants, as before
+    private static final Color[] ANSI = {
+            Color.BLACK, Color.RED, Color.GREEN, Color.YELLOW, Color.BLUE, Color.MAGENTA, Color.CYAN, Color.WHITE
+    };
+    private static final Color[] ANSI_BRIGHT = new Color[ANSI.length];
+    private static final Color[] PALETTE_256 = new Color[256];
+    private static final Color[] PALETTE_256_BRIGHT = new Color[256]; // brighterIfPossible of each entry
+    private static final Map<Color, Integer> PALETTE_INDEX = new IdentityHashMap<>(); // read-only after init
+
+    // Two-way set-associative caches: a value lives in one of the two slots its RGB hashes to, and a new
+    // value pushes out the older of them. Entries may be raced on; the worst case is one more Color for
+    // the same value, never a wrong one.
+    private static final int CACHE_SIZE = 4096;
+    private static final Color[] INTERNED = new Color[CACHE_SIZE];
+    private static final Brightened[] BRIGHTENED = new Brightened[CACHE_SIZE];
+
+    static {
+        for (int i = 0; i < ANSI.length; i++) {
+            ANSI_BRIGHT[i] = ANSI[i].brighter();
+        }
+        for (int i = 0; i < 16; i++) {
+            PALETTE_256[i] = i < 8 ? ANSI[i] : ANSI_BRIGHT[i - 8];
+        }
+        for (int i = 16; i < 232; i++) {
+            // 6x6x6 color cube
+            final int idx = i - 16;
+            final int b = idx % 6;
+            final int g = (idx / 6) % 6;
+            final int r = (idx / 36) % 6;
+            PALETTE_256[i] = intern(new Color(r == 0 ? 0 : 55 + r * 40, g == 0 ? 0 : 55 + g * 40, b == 0 ? 0 : 55 + b * 40));
+        }
+        for (int i = 232; i < 256; i++) {
+            // grayscale ramp 232-255
+            final int gray = clamp(8 + (i - 232) * 10);
+            PALETTE_256[i] = intern(new Color(gray, gray, gray));
+        }
+        for (int i = 0; i < PALETTE_256.length; i++) {
+            PALETTE_INDEX.putIfAbsent(PALETTE_256[i], i);
+            PALETTE_256_BRIGHT[i] = brighten(PALETTE_256[i]);
+        }
+    }
+
     // Safe brightening: try to make color brighter while avoiding full white
     public static Color brighterIfPossible(Color c) {
         if (c == null) return c;
+        final int index = paletteIndex(c);
+        if (index >= 0) return PALETTE_256_BRIGHT[index];
+
+        final int set = set(c.getRGB());
+        Brightened cached = BRIGHTENED[set];
+        if (cached != null && cached.from.equals(c)) return cached.to;
+        cached = BRIGHTENED[set + 1];
+        if (cached != null && cached.from.equals(c)) return cached.to;
+
+        final Color brighter = brighten(c);
+        BRIGHTENED[set + 1] = BRIGHTENED[set];
+        BRIGHTENED[set] = new Brightened(c, brighter);
+        return brighter;
+    }
+
+    private static Color brighten(Color c) {
         // Use Color.brighter() once to keep behavior predictable
         Color brighter = c.brighter();
         // If brighter equals the same (rare), fall back to small component increase
@@ -20,6 +86,29 @@ public class ColorUtils {
         return brighter;
     }
 
+    /** An opaque colour for 0-255 components; repeated values give the same instance while it stays cached. */
+    public static Color rgb(int r, int g, int b) {
+        final int rgb = 0xFF000000 | r << 16 | g << 8 | b;
+        final int set = set(rgb);
+        Color cached = INTERNED[set];
+        if (cached != null && cached.getRGB() == rgb) return cached;
+        cached = INTERNED[set + 1];
+        if (cached != null && cached.getRGB() == rgb) return cached;
+        return intern(new Color(r, g, b));
+    }
+
+    private static Color intern(Color color) {
+        final int set = set(color.getRGB());
+        INTERNED[set + 1] = INTERNED[set];
+        INTERNED[set] = color;
+        return color;
+    }
+
+    // First of the two slots for a value
+    private static int set(int rgb) {
+        return (rgb * 0x9E3779B9) >>> (33 - Integer.numberOfTrailingZeros(CACHE_SIZE)) << 1;
+    }
+
     // Clamp 0-255
     public static int clamp(int v) {
         if (v < 0) return 0;
@@ -29,51 +118,26 @@ public class ColorUtils {
     // Map 0..7 base ANSI color to Color; bright flag gives brighter variations.
     // Use Java built-in Color.<name> for base (non-dark) palette as requested.
     public static Color ansiColor(Terminal.TerminalState state, int idx, boolean bright) {
-        // Base ANSI colors using Java Color constants
-        Color base;
-        switch (idx) {
-            case 0 -> base = Color.BLACK;
-            case 1 -> base = Color.RED;
-            case 2 -> base = Color.GREEN;
-            case 3 -> base = Color.YELLOW;
-            case 4 -> base = Color.BLUE;
-            case 5 -> base = Color.MAGENTA;
-            case 6 -> base = Color.CYAN;
-            case 7 -> base = Color.WHITE;
-            default -> base = state.defaultFg;
-        }
-        if (bright) {
-            // Use .brighter() for bright variants
-            return base.brighter();
-        } else {
-            return base;
-        }
+        if (idx < 0 || idx >= ANSI.length) return state.defaultFg;
+        return bright ? ANSI_BRIGHT[idx] : ANSI[idx];
     }
 
     // Convert 256-color index to java.awt.Color
     public static Color colorFrom256(Terminal.TerminalState state, int index) {
         if (index < 0) index = 0;
         if (index > 255) index = 255;
-        if (index < 16) {
-            // system colors: map 0-7 standard, 8-15 bright
-            int base = index % 8;
-            boolean bright = index >= 8;
-            return ansiColor(state, base, bright);
-        } else if (index <= 231) {
-            // 6x6x6 color cube
-            int idx = index - 16;
-            int b = idx % 6;
-            int g = (idx / 6) % 6;
-            int r = (idx / 36) % 6;
-            int R = r == 0 ? 0 : 55 + r * 40;
-            int G = g == 0 ? 0 : 55 + g * 40;
-            int B = b == 0 ? 0 : 55 + b * 40;
-            return new Color(R, G, B);
-        } else {
-            // grayscale ramp 232-255
-            int gray = 8 + (index - 232) * 10;
-            gray = clamp(gray);
-            return new Color(gray, gray, gray);
-        }
+        return PALETTE_256[index];
+    }
+
+    /**
+     * @return the 256-colour palette index of a colour instance handed out by {@link #colorFrom256} or
+     * {@link #ansiColor}, or -1 for any other instance, even one with the same RGB value
+     */
+    public static int paletteIndex(Color color) {
+        final Integer index = PALETTE_INDEX.get(color);
+        return index != null ? index : -1;
+    }
+
+    private record Brightened(Color from, Color to) {
     }
 }
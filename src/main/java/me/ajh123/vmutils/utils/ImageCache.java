@@ -0,0 +1,151 @@
+package me.ajh123.vmutils.utils;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of VM images keyed by the SHA-256 of their contents. Identical images are held
+ * once and handed out as read-only buffers. Entries are weakly held: an image is dropped once no
+ * machine references it any more, and what was remembered about the files and names it came from goes
+ * with it the next time the cache is used.
+ */
+public final class ImageCache {
+    private static final Map<String, Entry> BY_HASH = new ConcurrentHashMap<>();
+    private static final Map<Path, FileEntry> HASH_BY_FILE = new ConcurrentHashMap<>(); // one entry per path
+    private static final Map<String, String> HASH_BY_NAME = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<byte[]> COLLECTED = new ReferenceQueue<>();
+
+    private ImageCache() {
+    }
+
+    @FunctionalInterface
+    public interface Reader {
+        byte[] read() throws IOException;
+    }
+
+    /**
+     * Get the shared copy of an image. If an identical image is already cached, {@code bytes} is
+     * discarded in favour of it; otherwise {@code bytes} becomes the shared copy and must not be modified.
+     */
+    public static ByteBuffer intern(byte[] bytes) {
+        expunge();
+        return view(internBytes(hash(bytes), bytes));
+    }
+
+    /**
+     * Get the shared copy of a file image, skipping the read entirely when a file with the same path,
+     * size and modification time has already been hashed and its contents are still cached. A file that
+     * changed replaces what was remembered about it.
+     */
+    public static ByteBuffer intern(Path path, long size, long lastModified, Reader reader) throws IOException {
+        expunge();
+        final Path key = path.toAbsolutePath().normalize();
+        final FileEntry known = HASH_BY_FILE.get(key);
+        if (known != null && known.size() == size && known.lastModified() == lastModified) {
+            final byte[] cached = get(known.hash());
+            if (cached != null) {
+                return view(cached);
+            }
+        }
+
+        final byte[] bytes = reader.read();
+        final String hash = hash(bytes);
+        HASH_BY_FILE.put(key, new FileEntry(size, lastModified, hash));
+        return view(internBytes(hash, bytes));
+    }
+
+    /**
+     * Get the shared copy of an image identified by name, skipping the read entirely while an image read
+     * under the same name is still cached. The name must always stand for the same contents.
+     */
+    public static ByteBuffer intern(String name, Reader reader) throws IOException {
+        expunge();
+        final String knownHash = HASH_BY_NAME.get(name);
+        if (knownHash != null) {
+            final byte[] cached = get(knownHash);
+            if (cached != null) {
+                return view(cached);
+            }
+        }
+
+        final byte[] bytes = reader.read();
+        final String hash = hash(bytes);
+        HASH_BY_NAME.put(name, hash);
+        return view(internBytes(hash, bytes));
+    }
+
+    /** Number of distinct images currently held. */
+    public static int size() {
+        expunge();
+        // an image can be collected before its reference is queued
+        return (int) BY_HASH.values().stream().filter(entry -> entry.get() != null).count();
+    }
+
+    // ---------- Helpers ----------
+
+    private static byte[] internBytes(String hash, byte[] bytes) {
+        // compute() keeps lookup and insert atomic so concurrent loads of one image agree on a single copy
+        final byte[][] result = new byte[1][];
+        BY_HASH.compute(hash, (k, ref) -> {
+            final byte[] existing = ref != null ? ref.get() : null;
+            if (existing != null) {
+                result[0] = existing;
+                return ref;
+            }
+            result[0] = bytes;
+            return new Entry(hash, bytes);
+        });
+        return result[0];
+    }
+
+    private static byte[] get(String hash) {
+        final Entry entry = BY_HASH.get(hash);
+        return entry != null ? entry.get() : null;
+    }
+
+    // Forget images the garbage collector has taken, with the files and names that pointed at them
+    private static void expunge() {
+        Entry collected;
+        while ((collected = (Entry) COLLECTED.poll()) != null) {
+            final String hash = collected.hash;
+            // the same contents may have been interned again since; that newer entry stays
+            if (BY_HASH.remove(hash, collected)) {
+                HASH_BY_FILE.values().removeIf(entry -> entry.hash().equals(hash));
+                HASH_BY_NAME.values().removeIf(hash::equals);
+            }
+        }
+    }
+
+    private static ByteBuffer view(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record FileEntry(long size, long lastModified, String hash) {
+    }
+
+    private static final class Entry extends WeakReference<byte[]> {
+        final String hash;
+
+        Entry(String hash, byte[] bytes) {
+            super(bytes, COLLECTED);
+            this.hash = hash;
+        }
+    }
+}
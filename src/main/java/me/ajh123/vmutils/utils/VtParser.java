@@ -0,0 +1,331 @@
+package me.ajh123.vmutils.utils;
+
+/**
+ * Byte-at-a-time parser for terminal output, following the DEC VT500 state machine: plain text, C0
+ * controls, ESC, CSI, OSC and DCS sequences, plus UTF-8 decoding of printable text.
+ * <p>
+ * Nothing is allocated while parsing. Numeric parameters are accumulated straight into a preallocated
+ * {@code int[]}, and OSC/DCS payloads into a preallocated byte buffer; both are passed to the
+ * {@link Handler} by reference and are only valid for the duration of the call. Parameters separated by
+ * {@code :} rather than {@code ;} are sub-parameters of the one before, as in {@code 38:2::r:g:b}; they
+ * stay in the same list and are marked in a bit mask. String sequences run until BEL or ST (ESC \), so
+ * letters inside an OSC title or a DCS payload do not end them. A UTF-8 sequence cut short by any other
+ * byte prints U+FFFD.
+ * <p>
+ * Not thread safe: feed one parser from one thread at a time.
+ */
+public final class VtParser {
+    /** Value of a parameter that was left out, as in {@code CSI ;5H}. */
+    public static final int DEFAULT_PARAM = -1;
+    public static final int MAX_PARAMS = 16;
+    public static final int MAX_STRING_LENGTH = 4096;
+    private static final int MAX_PARAM_VALUE = 65535;
+
+    public interface Handler {
+        /** A printable character, decoded from UTF-8. */
+        void print(int codepoint);
+
+        /** A C0 control character, such as LF, CR, BS or HT. */
+        void execute(int control);
+
+        /**
+         * A complete CSI sequence.
+         *
+         * @param subParams    bit {@code i} is set if {@code params[i]} followed a {@code :}, making it a
+         *                     sub-parameter of the parameter before it
+         * @param marker       private marker ({@code ?}, {@code >}, {@code <} or {@code =}), 0 if none
+         * @param intermediate intermediate byte (0x20-0x2F), 0 if none
+         */
+        void csiDispatch(int finalByte, int[] params, int paramCount, int subParams, int marker, int intermediate);
+
+        /** An escape sequence other than CSI, OSC or DCS, such as {@code ESC 7}. */
+        void escDispatch(int finalByte, int intermediate);
+
+        /** An OSC string, such as a window title; {@code data} holds the bytes between {@code ESC ]} and the terminator. */
+        default void oscDispatch(byte[] data, int length) {
+        }
+
+        /** A DCS sequence with its parameters and payload. */
+        default void dcsDispatch(int finalByte, int[] params, int paramCount, int marker, byte[] data, int length) {
+        }
+    }
+
+    private static final int GROUND = 0;
+    private static final int ESCAPE = 1;
+    private static final int ESCAPE_INTERMEDIATE = 2;
+    private static final int CSI_PARAM = 3;
+    private static final int CSI_INTERMEDIATE = 4;
+    private static final int CSI_IGNORE = 5;
+    private static final int OSC_STRING = 6;
+    private static final int DCS_PARAM = 7;
+    private static final int DCS_INTERMEDIATE = 8;
+    private static final int DCS_PASSTHROUGH = 9;
+    private static final int DCS_IGNORE = 10;
+    private static final int STRING_IGNORE = 11; // SOS, PM and APC
+
+    private final Handler handler;
+    private int state = GROUND;
+
+    private final int[] params = new int[MAX_PARAMS];
+    private int paramCount;
+    private int currentParam;
+    private boolean currentIsSubParam;
+    private int subParams; // bit i: params[i] followed a ':'
+    private boolean paramStarted;
+    private int marker;
+    private int intermediate;
+    private int dcsFinal;
+
+    private final byte[] string = new byte[MAX_STRING_LENGTH];
+    private int stringLength;
+
+    private int utf8Codepoint;
+    private int utf8Remaining;
+
+    public VtParser(Handler handler) {
+        this.handler = handler;
+    }
+
+    /** Feed one byte of output (0-255). Values above 255 are taken as already decoded characters. */
+    public void advance(int b) {
+        if (b > 0xFF) {
+            if (state == GROUND) {
+                abandonUtf8();
+                handler.print(b);
+            }
+            return;
+        }
+
+        // These act the same in every state
+        switch (b) {
+            case 0x18, 0x1A -> { // CAN, SUB: abort the sequence
+                if (state == GROUND) abandonUtf8();
+                state = GROUND;
+                handler.execute(b);
+                return;
+            }
+            case 0x1B -> { // ESC: starts a new sequence, or ST if it ends a string
+                if (state == OSC_STRING) {
+                    handler.oscDispatch(string, stringLength);
+                } else if (state == DCS_PASSTHROUGH) {
+                    handler.dcsDispatch(dcsFinal, params, paramCount, marker, string, stringLength);
+                } else if (state == GROUND) {
+                    abandonUtf8();
+                }
+                clear();
+                state = ESCAPE;
+                return;
+            }
+        }
+
+        switch (state) {
+            case GROUND -> ground(b);
+            case ESCAPE -> escape(b);
+            case ESCAPE_INTERMEDIATE -> {
+                if (b < 0x20) {
+                    handler.execute(b);
+                } else if (b < 0x30) {
+                    intermediate = b;
+                } else if (b < 0x7F) {
+                    handler.escDispatch(b, intermediate);
+                    state = GROUND;
+                }
+            }
+            case CSI_PARAM -> {
+                if (b < 0x20) {
+                    handler.execute(b);
+                } else if (!param(b)) {
+                    if (b < 0x30) {
+                        intermediate = b;
+                        state = CSI_INTERMEDIATE;
+                    } else if (b < 0x40) {
+                        state = CSI_IGNORE; // a marker after parameters
+                    } else if (b < 0x7F) {
+                        finishParams();
+                        handler.csiDispatch(b, params, paramCount, subParams, marker, intermediate);
+                        state = GROUND;
+                    }
+                }
+            }
+            case CSI_INTERMEDIATE -> {
+                if (b < 0x20) {
+                    handler.execute(b);
+                } else if (b < 0x30) {
+                    intermediate = b;
+                } else if (b < 0x40) {
+                    state = CSI_IGNORE;
+                } else if (b < 0x7F) {
+                    finishParams();
+                    handler.csiDispatch(b, params, paramCount, subParams, marker, intermediate);
+                    state = GROUND;
+                }
+            }
+            case CSI_IGNORE -> {
+                if (b < 0x20) {
+                    handler.execute(b);
+                } else if (b >= 0x40 && b < 0x7F) {
+                    state = GROUND;
+                }
+            }
+            case OSC_STRING -> {
+                if (b == 0x07) { // BEL, the common xterm terminator
+                    handler.oscDispatch(string, stringLength);
+                    state = GROUND;
+                } else if (b >= 0x20) {
+                    append(b);
+                }
+            }
+            case DCS_PARAM -> {
+                if (b >= 0x20 && !param(b)) {
+                    if (b < 0x30) {
+                        intermediate = b;
+                        state = DCS_INTERMEDIATE;
+                    } else if (b < 0x40) {
+                        state = DCS_IGNORE;
+                    } else if (b < 0x7F) {
+                        finishParams();
+                        dcsFinal = b;
+                        state = DCS_PASSTHROUGH;
+                    }
+                }
+            }
+            case DCS_INTERMEDIATE -> {
+                if (b >= 0x20 && b < 0x30) {
+                    intermediate = b;
+                } else if (b >= 0x30 && b < 0x40) {
+                    state = DCS_IGNORE;
+                } else if (b >= 0x40 && b < 0x7F) {
+                    finishParams();
+                    dcsFinal = b;
+                    state = DCS_PASSTHROUGH;
+                }
+            }
+            case DCS_PASSTHROUGH -> {
+                if (b != 0x7F) append(b);
+            }
+            case DCS_IGNORE, STRING_IGNORE -> {
+                // wait for ST
+            }
+        }
+    }
+
+    /** Feed a run of output bytes. */
+    public void advance(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            advance(bytes[i] & 0xFF);
+        }
+    }
+
+    private void ground(int b) {
+        if (b < 0x20) {
+            abandonUtf8();
+            handler.execute(b);
+        } else if (b < 0x7F) {
+            abandonUtf8();
+            handler.print(b);
+        } else if (b == 0x7F) {
+            // DEL is ignored
+        } else if (b < 0xC0) {
+            // continuation byte
+            if (utf8Remaining == 0) {
+                handler.print(0xFFFD);
+                return;
+            }
+            utf8Codepoint = (utf8Codepoint << 6) | (b & 0x3F);
+            if (--utf8Remaining == 0) {
+                handler.print(utf8Codepoint);
+            }
+        } else {
+            abandonUtf8();
+            if (b < 0xE0) {
+                utf8Codepoint = b & 0x1F;
+                utf8Remaining = 1;
+            } else if (b < 0xF0) {
+                utf8Codepoint = b & 0x0F;
+                utf8Remaining = 2;
+            } else if (b < 0xF8) {
+                utf8Codepoint = b & 0x07;
+                utf8Remaining = 3;
+            } else {
+                utf8Remaining = 0;
+                handler.print(0xFFFD);
+            }
+        }
+    }
+
+    // A byte other than a continuation byte arrived while a UTF-8 sequence was incomplete
+    private void abandonUtf8() {
+        if (utf8Remaining != 0) {
+            utf8Remaining = 0;
+            handler.print(0xFFFD);
+        }
+    }
+
+    private void escape(int b) {
+        if (b < 0x20) {
+            handler.execute(b);
+        } else if (b < 0x30) {
+            intermediate = b;
+            state = ESCAPE_INTERMEDIATE;
+        } else if (b == '[') {
+            state = CSI_PARAM;
+        } else if (b == ']') {
+            state = OSC_STRING;
+        } else if (b == 'P') {
+            state = DCS_PARAM;
+        } else if (b == 'X' || b == '^' || b == '_') {
+            state = STRING_IGNORE;
+        } else if (b < 0x7F) {
+            handler.escDispatch(b, intermediate);
+            state = GROUND;
+        }
+    }
+
+    // Consume a parameter byte: digits, separators or, before any parameter, a private marker
+    private boolean param(int b) {
+        if (b >= '0' && b <= '9') {
+            final int base = currentParam == DEFAULT_PARAM ? 0 : currentParam;
+            currentParam = Math.min(MAX_PARAM_VALUE, base * 10 + (b - '0'));
+            paramStarted = true;
+            return true;
+        }
+        if (b == ';' || b == ':') {
+            pushParam();
+            currentParam = DEFAULT_PARAM;
+            currentIsSubParam = b == ':';
+            paramStarted = true;
+            return true;
+        }
+        if (b >= 0x3C && b <= 0x3F && !paramStarted && marker == 0) {
+            marker = b;
+            return true;
+        }
+        return false;
+    }
+
+    private void finishParams() {
+        if (paramStarted) pushParam();
+    }
+
+    private void pushParam() {
+        if (paramCount < MAX_PARAMS) {
+            if (currentIsSubParam) subParams |= 1 << paramCount;
+            params[paramCount++] = currentParam;
+        }
+    }
+
+    private void append(int b) {
+        if (stringLength < string.length) string[stringLength++] = (byte) b;
+    }
+
+    private void clear() {
+        paramCount = 0;
+        currentParam = DEFAULT_PARAM;
+        currentIsSubParam = false;
+        subParams = 0;
+        paramStarted = false;
+        marker = 0;
+        intermediate = 0;
+        stringLength = 0;
+    }
+}
@@ -0,0 +1,113 @@
+package me.ajh123.vmutils.device.block;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CopyOnWriteBlockDeviceTest {
+    private static final int BLOCK = CopyOnWriteBlockDevice.DEFAULT_BLOCK_SIZE;
+    private static final int CAPACITY = 3 * BLOCK + 100; // the last block is partial
+
+    @Test
+    void partialBlockWritesKeepTheRestOfTheBase() {
+        final byte[] base = image();
+        final byte[] expected = base.clone();
+        final CopyOnWriteBlockDevice device = new CopyOnWriteBlockDevice(ByteBuffer.wrap(base));
+
+        // straddles blocks 0 and 1, and ends inside the partial last block
+        write(device, expected, BLOCK - 6, 10, (byte) 0x11);
+        write(device, expected, CAPACITY - 5, 5, (byte) 0x22);
+
+        assertArrayEquals(expected, readAll(device));
+        assertEquals(3L * BLOCK, device.getOverlaySize());
+        assertArrayEquals(image(), base, "the base image must never be written");
+    }
+
+    @Test
+    void readsCrossTheOverlayBoundary() throws IOException {
+        final byte[] expected = image();
+        final CopyOnWriteBlockDevice device = new CopyOnWriteBlockDevice(ByteBuffer.wrap(expected.clone()));
+        write(device, expected, BLOCK + 1, 3, (byte) 0x33); // only block 1 is in the overlay
+
+        // from base block 0, through overlay block 1, into base block 2
+        final int from = BLOCK - 50;
+        final int length = BLOCK + 100;
+        final byte[] read = new byte[length];
+        device.read(from, read, 0, length);
+        assertArrayEquals(Arrays.copyOfRange(expected, from, from + length), read);
+
+        // and the same through the stream view, in odd sized pieces
+        final byte[] streamed = new byte[CAPACITY - from];
+        try (var in = device.getInputStream(from)) {
+            int offset = 0;
+            int count;
+            while ((count = in.read(streamed, offset, Math.min(777, streamed.length - offset))) > 0) offset += count;
+            assertEquals(streamed.length, offset);
+        }
+        assertArrayEquals(Arrays.copyOfRange(expected, from, CAPACITY), streamed);
+    }
+
+    @Test
+    void discardChangesRestoresTheBase() {
+        final CopyOnWriteBlockDevice device = new CopyOnWriteBlockDevice(ByteBuffer.wrap(image()));
+        write(device, image(), 10, BLOCK * 2, (byte) 0x44);
+        device.discardChanges();
+        assertEquals(0, device.getOverlaySize());
+        assertArrayEquals(image(), readAll(device));
+    }
+
+    @Test
+    void overlayRoundTripsOntoTheSameBase() throws IOException {
+        final byte[] expected = image();
+        final CopyOnWriteBlockDevice device = new CopyOnWriteBlockDevice(ByteBuffer.wrap(image()));
+        write(device, expected, 5, 20, (byte) 0x55);
+        write(device, expected, CAPACITY - 1, 1, (byte) 0x66);
+        final ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        device.writeOverlay(new DataOutputStream(saved));
+
+        final CopyOnWriteBlockDevice restored = new CopyOnWriteBlockDevice(ByteBuffer.wrap(image()));
+        restored.readOverlay(new DataInputStream(new ByteArrayInputStream(saved.toByteArray())));
+        assertArrayEquals(expected, readAll(restored));
+        assertEquals(device.getOverlaySize(), restored.getOverlaySize());
+
+        final CopyOnWriteBlockDevice smaller = new CopyOnWriteBlockDevice(ByteBuffer.wrap(new byte[BLOCK]));
+        assertThrows(IOException.class,
+                () -> smaller.readOverlay(new DataInputStream(new ByteArrayInputStream(saved.toByteArray()))));
+    }
+
+    @Test
+    void readonlyIsReported() {
+        assertTrue(new CopyOnWriteBlockDevice(ByteBuffer.wrap(image()), true).isReadonly());
+        assertFalse(new CopyOnWriteBlockDevice(ByteBuffer.wrap(image())).isReadonly());
+        assertEquals(CAPACITY, new CopyOnWriteBlockDevice(ByteBuffer.wrap(image()), true).getCapacity());
+    }
+
+    private static byte[] image() {
+        final byte[] image = new byte[CAPACITY];
+        new Random(7).nextBytes(image);
+        return image;
+    }
+
+    // Write length bytes of value through the device and into the expected contents
+    private static void write(CopyOnWriteBlockDevice device, byte[] expected, int position, int length, byte value) {
+        final byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        device.write(position, data, 0, length);
+        Arrays.fill(expected, position, position + length, value);
+    }
+
+    private static byte[] readAll(CopyOnWriteBlockDevice device) {
+        final byte[] all = new byte[(int) device.getCapacity()];
+        device.read(0, all, 0, all.length);
+        return all;
+    }
+}
@@ -0,0 +1,51 @@
+package me.ajh123.vmutils.device.memory;
+
+import li.cil.sedna.api.Sizes;
+import li.cil.sedna.api.memory.MemoryAccessException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirtyTrackingMemoryTest {
+    private static final int SIZE = 4 * DirtyTrackingMemory.PAGE_SIZE;
+
+    @Test
+    void singleAccessesAreRangeChecked() throws MemoryAccessException {
+        final DirtyTrackingMemory memory = new DirtyTrackingMemory(SIZE);
+        memory.store(SIZE - 8, 0x0102030405060708L, Sizes.SIZE_64_LOG2);
+        assertEquals(0x0102030405060708L, memory.load(SIZE - 8, Sizes.SIZE_64_LOG2));
+        assertEquals(0x08, memory.load(SIZE - 8, Sizes.SIZE_8_LOG2)); // little endian
+
+        assertThrows(MemoryAccessException.class, () -> memory.load(SIZE - 4, Sizes.SIZE_64_LOG2));
+        assertThrows(MemoryAccessException.class, () -> memory.load(SIZE, Sizes.SIZE_8_LOG2));
+        assertThrows(MemoryAccessException.class, () -> memory.load(-1, Sizes.SIZE_8_LOG2));
+        assertThrows(MemoryAccessException.class, () -> memory.store(SIZE - 1, 0, Sizes.SIZE_16_LOG2));
+        assertThrows(MemoryAccessException.class, () -> memory.store(Integer.MIN_VALUE, 0, Sizes.SIZE_32_LOG2));
+        assertEquals(1, memory.getDirtyPageCount(), "a rejected store must not mark a page dirty");
+    }
+
+    @Test
+    void bulkAccessesAreRangeChecked() {
+        final DirtyTrackingMemory memory = new DirtyTrackingMemory(SIZE);
+        assertThrows(MemoryAccessException.class, () -> memory.store(SIZE - 2, ByteBuffer.allocate(4)));
+        assertThrows(MemoryAccessException.class, () -> memory.load(-4, ByteBuffer.allocate(4)));
+        assertEquals(0, memory.getDirtyPageCount());
+    }
+
+    @Test
+    void resetToBaselineRestoresOnlyDirtyPages() throws MemoryAccessException {
+        final DirtyTrackingMemory memory = new DirtyTrackingMemory(SIZE);
+        memory.store(0, 0x11, Sizes.SIZE_8_LOG2);
+        memory.markBaseline();
+        assertEquals(0, memory.getDirtyPageCount());
+
+        memory.store(0, 0x22, Sizes.SIZE_8_LOG2);
+        memory.store(DirtyTrackingMemory.PAGE_SIZE - 2, 0xFFFFFFFFL, Sizes.SIZE_32_LOG2); // straddles pages 0 and 1
+        assertEquals(2, memory.getDirtyPageCount());
+        assertEquals(2, memory.resetToBaseline());
+        assertEquals(0x11, memory.load(0, Sizes.SIZE_8_LOG2));
+        assertEquals(0, memory.load(DirtyTrackingMemory.PAGE_SIZE - 2, Sizes.SIZE_32_LOG2));
+    }
+}
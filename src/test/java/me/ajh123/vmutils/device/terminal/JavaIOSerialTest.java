@@ -0,0 +1,53 @@
+package me.ajh123.vmutils.device.terminal;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JavaIOSerialTest {
+    @Test
+    void failedOutputIsDroppedAndRaisedFromInput() throws IOException {
+        final BrokenChannel channel = new BrokenChannel();
+        final JavaIOSerial serial = new JavaIOSerial(new ByteArrayInputStream(new byte[0]), channel, 4, 0);
+        try {
+            final byte[] text = "hello".getBytes(StandardCharsets.US_ASCII);
+            serial.write(text, 0, text.length); // the first flush fails; nothing escapes to the writer
+            serial.putChar('!');
+            serial.flush();
+
+            assertEquals(1, channel.writes);
+            assertEquals(text.length + 1, serial.getDroppedBytes());
+            final IOException failure = assertThrows(IOException.class, () -> serial.read(ByteBuffer.allocate(8)));
+            assertSame(channel.failure, failure.getCause());
+            assertThrows(IOException.class, serial::hasInput);
+        } finally {
+            serial.close();
+        }
+    }
+
+    private static final class BrokenChannel implements WritableByteChannel {
+        final IOException failure = new IOException("Broken pipe");
+        int writes;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            writes++;
+            throw failure;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
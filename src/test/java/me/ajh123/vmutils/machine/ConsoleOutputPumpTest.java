@@ -0,0 +1,202 @@
+package me.ajh123.vmutils.machine;
+
+import me.ajh123.vmutils.api.Backpressure;
+import me.ajh123.vmutils.api.SerialConsole;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsoleOutputPumpTest {
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    private final Recorder console = new Recorder();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Test
+    void startAfterCloseDeliversNewOutput() throws IOException, InterruptedException {
+        final ConsoleOutputPump pump = new ConsoleOutputPump(console, 64, Backpressure.BLOCK, dropped::addAndGet, "test");
+        pump.start(ExecutionMode.PLATFORM);
+        write(pump, "before ");
+        pump.close();
+        awaitPumpThreadsEnded();
+
+        pump.start(ExecutionMode.PLATFORM);
+        write(pump, "after");
+        console.await(12);
+        pump.close();
+
+        assertEquals("before after", console.text());
+        assertEquals(0, dropped.get());
+    }
+
+    @Test
+    void growKeepsOrderWhileTheConsoleIsStalled() throws IOException, InterruptedException {
+        console.stall();
+        final ConsoleOutputPump pump = new ConsoleOutputPump(console, 16, Backpressure.GROW, dropped::addAndGet, "test");
+        pump.start(ExecutionMode.PLATFORM);
+
+        // far more than the initial buffer; the producer must never wait for the stalled console
+        final byte[] expected = new byte[10_000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        for (int offset = 0; offset < expected.length; offset += 100) {
+            pump.write(expected, offset, 100);
+        }
+        console.resume();
+        console.await(expected.length);
+        pump.close();
+
+        assertArrayEquals(expected, console.bytes());
+        assertEquals(0, dropped.get());
+    }
+
+    @Test
+    void growReleasesBuffersOnceABurstIsDelivered() throws IOException, InterruptedException {
+        console.stall();
+        final ConsoleOutputPump pump = new ConsoleOutputPump(console, 16, Backpressure.GROW, dropped::addAndGet, "test");
+        pump.start(ExecutionMode.PLATFORM);
+        for (int burst = 1; burst <= 3; burst++) {
+            final byte[] bytes = new byte[10_000];
+            pump.write(bytes, 0, bytes.length);
+            assertTrue(pump.capacity() >= 10_000);
+            console.resume();
+            console.await(burst * bytes.length);
+            // the next write moves back to a buffer of the configured size, the grown ones are then let go
+            write(pump, "x");
+            console.await(burst * (bytes.length + 1));
+            awaitCapacity(pump, 16);
+            console.stall();
+        }
+        console.resume();
+        pump.close();
+        assertEquals(0, dropped.get());
+    }
+
+    @Test
+    void dropCountsWhatDoesNotFit() throws IOException, InterruptedException {
+        console.stall();
+        final ConsoleOutputPump pump = new ConsoleOutputPump(console, 16, Backpressure.DROP, dropped::addAndGet, "test");
+        pump.start(ExecutionMode.PLATFORM);
+        final byte[] bytes = new byte[1_000];
+        for (int offset = 0; offset < bytes.length; offset += 10) {
+            pump.write(bytes, offset, 10);
+        }
+        console.resume();
+        pump.close();
+        pump.start(ExecutionMode.PLATFORM); // waits for the closed pump to finish delivering
+
+        assertTrue(dropped.get() > 0);
+        assertEquals(bytes.length, console.bytes().length + dropped.get());
+        pump.close();
+    }
+
+    @Test
+    void failingConsoleEndsBlockedWrites() {
+        final SerialConsole failing = new Recorder() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                throw new IllegalStateException("console gone");
+            }
+        };
+        final ConsoleOutputPump pump = new ConsoleOutputPump(failing, 16, Backpressure.BLOCK, dropped::addAndGet, "test");
+        pump.start(ExecutionMode.PLATFORM);
+        final byte[] bytes = new byte[100];
+
+        // with BLOCK and no consumer left, this used to wait for space forever
+        final IOException e = assertTimeoutPreemptively(Duration.ofMillis(TIMEOUT_MILLIS), () -> assertThrows(IOException.class, () -> {
+            while (true) {
+                pump.write(bytes, 0, bytes.length);
+            }
+        }));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertTrue(dropped.get() > 0);
+    }
+
+    private static void awaitCapacity(ConsoleOutputPump pump, int capacity) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (pump.capacity() != capacity) {
+            assertTrue(System.nanoTime() < deadline, "buffers still held: " + pump.capacity());
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitPumpThreadsEnded() throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().startsWith("R5VirtualMachine-console-"))) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting for the pump thread to end");
+            Thread.sleep(1);
+        }
+    }
+
+    private static void write(ConsoleOutputPump pump, String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        pump.write(bytes, 0, bytes.length);
+    }
+
+    /** Records everything written; while stalled, the first write blocks until resumed. */
+    private static class Recorder implements SerialConsole {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private volatile CountDownLatch stalled = new CountDownLatch(0);
+
+        void stall() {
+            stalled = new CountDownLatch(1);
+        }
+
+        void resume() {
+            stalled.countDown();
+        }
+
+        void await(int size) throws IOException, InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            while (bytes().length < size) {
+                assertTrue(System.nanoTime() < deadline, "timed out waiting for console output");
+                Thread.sleep(1);
+            }
+        }
+
+        synchronized byte[] bytes() {
+            return output.toByteArray();
+        }
+
+        String text() {
+            return new String(bytes(), StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            try {
+                stalled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                output.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public boolean hasInput() {
+            return false;
+        }
+
+        @Override
+        public byte dequeueInput() {
+            return 0;
+        }
+
+        @Override
+        public void putChar(char c) {
+            write(new byte[]{(byte) c}, 0, 1);
+        }
+    }
+}
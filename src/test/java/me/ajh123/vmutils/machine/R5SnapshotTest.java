@@ -0,0 +1,155 @@
+package me.ajh123.vmutils.machine;
+
+import li.cil.sedna.buildroot.Buildroot;
+import me.ajh123.vmutils.api.ImageSource;
+import me.ajh123.vmutils.api.SerialConsole;
+import me.ajh123.vmutils.device.block.CopyOnWriteBlockDevice;
+import me.ajh123.vmutils.device.memory.DirtyTrackingMemory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class R5SnapshotTest {
+    private static final int MEMORY_BYTES = 64 * DirtyTrackingMemory.PAGE_SIZE;
+
+    @Test
+    void startedMachineRestoresIntoAFreshOne() throws IOException {
+        final Path saved = Files.createTempFile("r5snapshot", ".bin");
+        final Path resaved = Files.createTempFile("r5snapshot", ".bin");
+        final R5VirtualMachine original = newMachine();
+        final R5VirtualMachine restored = newMachine();
+        try {
+            original.start();
+            assertTrue(original.runCycles(10_000_000));
+            original.saveSnapshot(saved);
+
+            restored.restoreSnapshot(saved);
+            restored.saveSnapshot(resaved);
+
+            // the restored machine has not run since, so everything saved (board and CPU state with the
+            // pc, device state, RAM and disk overlay) must come out exactly as it went in
+            assertArrayEquals(inflate(saved), inflate(resaved));
+        } finally {
+            original.shutdown();
+            restored.shutdown();
+            Files.deleteIfExists(saved);
+            Files.deleteIfExists(resaved);
+        }
+    }
+
+    @Test
+    void memoryRoundTrips() throws Exception {
+        final DirtyTrackingMemory memory = new DirtyTrackingMemory(MEMORY_BYTES);
+        final byte[] contents = new byte[MEMORY_BYTES];
+        new Random(3).nextBytes(contents);
+        memory.store(0, ByteBuffer.wrap(contents));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot(memory, null).writeMemory(new DataOutputStream(out));
+
+        final DirtyTrackingMemory into = new DirtyTrackingMemory(MEMORY_BYTES);
+        snapshot(into, null).readMemory(input(out));
+        final ByteBuffer read = ByteBuffer.allocate(MEMORY_BYTES);
+        into.load(0, read);
+        assertArrayEquals(contents, read.array());
+
+        final DirtyTrackingMemory smaller = new DirtyTrackingMemory(MEMORY_BYTES / 2);
+        assertThrows(IOException.class, () -> snapshot(smaller, null).readMemory(input(out)));
+    }
+
+    @Test
+    void diskOverlayRoundTrips() throws IOException {
+        final byte[] base = new byte[4 * CopyOnWriteBlockDevice.DEFAULT_BLOCK_SIZE];
+        final CopyOnWriteBlockDevice disk = new CopyOnWriteBlockDevice(ByteBuffer.wrap(base));
+        disk.write(CopyOnWriteBlockDevice.DEFAULT_BLOCK_SIZE + 7, new byte[]{1, 2, 3}, 0, 3);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot(null, disk).writeDisk(new DataOutputStream(out));
+
+        final CopyOnWriteBlockDevice into = new CopyOnWriteBlockDevice(ByteBuffer.wrap(base));
+        snapshot(null, into).readDisk(input(out));
+        assertEquals(disk.getOverlaySize(), into.getOverlaySize());
+        final byte[] read = new byte[3];
+        into.read(CopyOnWriteBlockDevice.DEFAULT_BLOCK_SIZE + 7, read, 0, 3);
+        assertArrayEquals(new byte[]{1, 2, 3}, read);
+        assertArrayEquals(new byte[base.length], base, "the base image must not be written");
+
+        // overlay blocks cannot go onto a disk that has no overlay
+        assertThrows(IOException.class, () -> snapshot(null, null).readDisk(input(out)));
+    }
+
+    @Test
+    void rejectsOtherFilesAndVersions() throws IOException {
+        final Path file = Files.createTempFile("r5snapshot", ".bin");
+        try {
+            writeHeader(file, 0x12345678, R5Snapshot.VERSION);
+            final IOException badMagic = assertThrows(IOException.class, () -> snapshot(null, null).read(file));
+            assertTrue(badMagic.getMessage().startsWith("Not a VM snapshot"), badMagic.getMessage());
+
+            writeHeader(file, R5Snapshot.MAGIC, R5Snapshot.VERSION + 1);
+            final IOException badVersion = assertThrows(IOException.class, () -> snapshot(null, null).read(file));
+            assertTrue(badVersion.getMessage().startsWith("Unsupported snapshot version"), badVersion.getMessage());
+
+            Files.write(file, new byte[]{1, 2, 3}); // not even deflate data
+            assertThrows(IOException.class, () -> snapshot(null, null).read(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Only the parts a test hands in are used; the header is checked before any device is touched
+    private static R5Snapshot snapshot(DirtyTrackingMemory memory, CopyOnWriteBlockDevice disk) {
+        return new R5Snapshot(null, memory, null, null, null, disk);
+    }
+
+    private static DataInputStream input(ByteArrayOutputStream out) {
+        return new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void writeHeader(Path file, int magic, int version) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+        }
+    }
+
+    private static byte[] inflate(Path file) throws IOException {
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(file))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static R5VirtualMachine newMachine() {
+        return new R5VirtualMachine(ImageSource.of("buildroot-firmware", Buildroot::getFirmware),
+                ImageSource.of("buildroot-kernel", Buildroot::getLinuxImage),
+                ImageSource.of("buildroot-rootfs", Buildroot::getRootFilesystem),
+                new SilentConsole());
+    }
+
+    private static final class SilentConsole implements SerialConsole {
+        @Override
+        public boolean hasInput() {
+            return false;
+        }
+
+        @Override
+        public byte dequeueInput() {
+            return 0;
+        }
+
+        @Override
+        public void putChar(char c) {
+        }
+    }
+}
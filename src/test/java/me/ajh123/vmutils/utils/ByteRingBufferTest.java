@@ -0,0 +1,58 @@
+package me.ajh123.vmutils.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRingBufferTest {
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(1, new ByteRingBuffer(1).capacity());
+        assertEquals(8, new ByteRingBuffer(5).capacity());
+        assertEquals(8, new ByteRingBuffer(8).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new ByteRingBuffer(0));
+    }
+
+    @Test
+    void singleBytesWrapAround() {
+        final ByteRingBuffer ring = new ByteRingBuffer(4);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(ring.offer((byte) i));
+            assertTrue(ring.offer((byte) (i + 100)));
+            assertEquals(i, ring.poll());
+            assertEquals(i + 100, ring.poll());
+            assertTrue(ring.isEmpty());
+        }
+        assertEquals(-1, ring.poll());
+    }
+
+    @Test
+    void bulkTransfersSplitAtTheEndOfTheArray() {
+        final ByteRingBuffer ring = new ByteRingBuffer(8);
+        final byte[] out = new byte[8];
+        // move the indices to 6, so the next 6 bytes wrap after 2
+        assertEquals(6, ring.offer(new byte[6], 0, 6));
+        assertEquals(6, ring.poll(out, 0, 8));
+
+        assertEquals(6, ring.offer(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+        assertEquals(6, ring.size());
+        assertEquals(6, ring.poll(out, 1, 7));
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 0}, out);
+    }
+
+    @Test
+    void offerStopsWhenFull() {
+        final ByteRingBuffer ring = new ByteRingBuffer(4);
+        assertEquals(4, ring.offer(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+        assertTrue(ring.isFull());
+        assertFalse(ring.offer((byte) 7));
+        assertEquals(0, ring.offer(new byte[]{7}, 0, 1));
+
+        assertEquals(1, ring.poll());
+        assertEquals(1, ring.offer(new byte[]{5, 6}, 0, 2));
+        final byte[] out = new byte[4];
+        assertEquals(4, ring.poll(out, 0, 4));
+        assertArrayEquals(new byte[]{2, 3, 4, 5}, out);
+        assertEquals(0, ring.poll(out, 0, 4));
+    }
+}
@@ -0,0 +1,102 @@
+package me.ajh123.vmutils.utils;
+
+import me.ajh123.vmutils.api.Terminal;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EscapeCodesTest {
+    private static final int ROWS = 24;
+    private static final int COLS = 80;
+
+    @Test
+    void sgr256AndTruecolourSemicolonForms() {
+        final TestTerminal terminal = new TestTerminal();
+        terminal.feed("\u001b[38;5;196;48;5;21m");
+        assertSame(ColorUtils.colorFrom256(terminal.state(), 196), terminal.getCurrentFg());
+        assertSame(ColorUtils.colorFrom256(terminal.state(), 21), terminal.getCurrentBg());
+
+        terminal.feed("\u001b[38;2;1;2;3;48;2;4;5;6;1m");
+        assertEquals(new Color(1, 2, 3), terminal.getCurrentFg());
+        assertEquals(new Color(4, 5, 6), terminal.getCurrentBg());
+        assertTrue(terminal.state().attrBold);
+    }
+
+    @Test
+    void sgrColonForms() {
+        final TestTerminal terminal = new TestTerminal();
+        terminal.feed("\u001b[38:2::10:20:30m"); // ITU form, empty colour space
+        assertEquals(new Color(10, 20, 30), terminal.getCurrentFg());
+
+        terminal.feed("\u001b[48:2:0:40:50:60m"); // ITU form with a colour space id
+        assertEquals(new Color(40, 50, 60), terminal.getCurrentBg());
+
+        terminal.feed("\u001b[38:2:70:80:90;4m"); // xterm form, without the colour space
+        assertEquals(new Color(70, 80, 90), terminal.getCurrentFg());
+        assertTrue(terminal.state().attrUnderline);
+
+        terminal.feed("\u001b[38:5:196;4:0m");
+        assertSame(ColorUtils.colorFrom256(terminal.state(), 196), terminal.getCurrentFg());
+        assertFalse(terminal.state().attrUnderline);
+    }
+
+    @Test
+    void sequenceSplitAcrossPutCharCalls() {
+        final TestTerminal terminal = new TestTerminal();
+        for (char c : "\u001b[38;2;9;8;".toCharArray()) terminal.putChar(c);
+        assertEquals(terminal.getDefaultFg(), terminal.getCurrentFg());
+        for (char c : "7mX".toCharArray()) terminal.putChar(c);
+        assertEquals(new Color(9, 8, 7), terminal.getCurrentFg());
+        assertEquals('X', terminal.state().getChar(0, 0));
+        assertEquals(1, terminal.state().cursorCol);
+    }
+
+    @Test
+    void cursorMovementIsClampedToTheScreen() {
+        final TestTerminal terminal = new TestTerminal();
+        terminal.feed("\u001b[500;900H");
+        assertCursor(terminal, ROWS - 1, COLS - 1);
+        terminal.feed("\u001b[0;0H");
+        assertCursor(terminal, 0, 0);
+        terminal.feed("\u001b[5;10H\u001b[2A\u001b[3D");
+        assertCursor(terminal, 2, 6);
+        terminal.feed("\u001b[99A\u001b[99D");
+        assertCursor(terminal, 0, 0);
+        terminal.feed("\u001b[99B\u001b[999C");
+        assertCursor(terminal, ROWS - 1, COLS - 1);
+        terminal.feed("\u001b[;7H"); // an omitted row is 1
+        assertCursor(terminal, 0, 6);
+    }
+
+    private static void assertCursor(TestTerminal terminal, int row, int col) {
+        assertEquals(row, terminal.state().cursorRow);
+        assertEquals(col, terminal.state().cursorCol);
+    }
+
+    private static final class TestTerminal extends Terminal {
+        TestTerminal() {
+            super(ROWS, COLS, Color.LIGHT_GRAY, Color.BLACK, 0);
+            setFrameRate(0);
+        }
+
+        Terminal.TerminalState state() {
+            return state;
+        }
+
+        void feed(String text) {
+            final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void refresh() {
+        }
+
+        @Override
+        public void refreshCell(int row, int col) {
+        }
+    }
+}
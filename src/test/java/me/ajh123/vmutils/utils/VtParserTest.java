@@ -0,0 +1,118 @@
+package me.ajh123.vmutils.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VtParserTest {
+    @Test
+    void sequenceSplitAcrossCallsIsDispatchedOnce() {
+        final Recorder recorder = new Recorder();
+        final VtParser parser = new VtParser(recorder);
+        feed(parser, "a\u001b[3");
+        feed(parser, "1;");
+        feed(parser, "4");
+        assertEquals(List.of("print a"), recorder.events);
+        feed(parser, "mb");
+        assertEquals(List.of("print a", "csi m [31, 4] sub=0", "print b"), recorder.events);
+    }
+
+    @Test
+    void colonSubParametersAreMarked() {
+        final Recorder recorder = new Recorder();
+        final VtParser parser = new VtParser(recorder);
+        feed(parser, "\u001b[38:2::10:20:30;1m");
+        // 38, then mode, empty colour space and r:g:b as its sub-parameters, then 1 on its own
+        assertEquals(List.of("csi m [38, 2, -1, 10, 20, 30, 1] sub=111110"), recorder.events);
+
+        recorder.events.clear();
+        feed(parser, "\u001b[38;2;10;20;30m");
+        assertEquals(List.of("csi m [38, 2, 10, 20, 30] sub=0"), recorder.events);
+    }
+
+    @Test
+    void privateMarkerAndOmittedParameters() {
+        final Recorder recorder = new Recorder();
+        final VtParser parser = new VtParser(recorder);
+        feed(parser, "\u001b[?25l\u001b[;5H");
+        assertEquals(List.of("csi l [25] sub=0 marker=?", "csi H [-1, 5] sub=0"), recorder.events);
+    }
+
+    @Test
+    void utf8SplitAcrossCallsIsDecoded() {
+        final Recorder recorder = new Recorder();
+        final VtParser parser = new VtParser(recorder);
+        final byte[] euro = "\u20ac".getBytes(StandardCharsets.UTF_8);
+        parser.advance(euro, 0, 1);
+        parser.advance(euro, 1, 2);
+        assertEquals(List.of("print U+20AC"), recorder.events);
+    }
+
+    @Test
+    void truncatedUtf8IsReplaced() {
+        final Recorder recorder = new Recorder();
+        final VtParser parser = new VtParser(recorder);
+        parser.advance(new byte[]{(byte) 0xE2, (byte) 0x82, 'A'}, 0, 3);
+        assertEquals(List.of("print U+FFFD", "print A"), recorder.events);
+
+        recorder.events.clear();
+        parser.advance(new byte[]{(byte) 0xC3, '\n'}, 0, 2);
+        assertEquals(List.of("print U+FFFD", "execute 10"), recorder.events);
+
+        recorder.events.clear();
+        parser.advance(new byte[]{(byte) 0xC3, 0x1B, '[', 'm'}, 0, 4);
+        assertEquals(List.of("print U+FFFD", "csi m [] sub=0"), recorder.events);
+
+        recorder.events.clear();
+        parser.advance(new byte[]{(byte) 0x82, (byte) 0xC3, (byte) 0xE9}, 0, 3); // stray continuation, then a new lead
+        assertEquals(List.of("print U+FFFD", "print U+FFFD"), recorder.events);
+    }
+
+    @Test
+    void oscRunsToItsTerminator() {
+        final Recorder recorder = new Recorder();
+        final VtParser parser = new VtParser(recorder);
+        feed(parser, "\u001b]0;make me a title\u0007x\u001b]2;second\u001b\\");
+        assertEquals(List.of("osc 0;make me a title", "print x", "osc 2;second", "esc \\"), recorder.events);
+    }
+
+    private static void feed(VtParser parser, String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        parser.advance(bytes, 0, bytes.length);
+    }
+
+    private static final class Recorder implements VtParser.Handler {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void print(int codepoint) {
+            events.add("print " + (codepoint < 0x80 ? Character.toString(codepoint) : String.format("U+%04X", codepoint)));
+        }
+
+        @Override
+        public void execute(int control) {
+            events.add("execute " + control);
+        }
+
+        @Override
+        public void csiDispatch(int finalByte, int[] params, int paramCount, int subParams, int marker, int intermediate) {
+            events.add("csi " + (char) finalByte + " " + Arrays.toString(Arrays.copyOf(params, paramCount))
+                    + " sub=" + Integer.toBinaryString(subParams) + (marker != 0 ? " marker=" + (char) marker : ""));
+        }
+
+        @Override
+        public void escDispatch(int finalByte, int intermediate) {
+            events.add("esc " + (char) finalByte);
+        }
+
+        @Override
+        public void oscDispatch(byte[] data, int length) {
+            events.add("osc " + new String(data, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+}